@@ -22,6 +22,14 @@ export const fileApi = {
     })
   },
 
+  startUploadSession(data) {
+    return api.post('/file/session', data)
+  },
+
+  abortUploadSession(identifier) {
+    return api.delete(`/file/session/${identifier}`)
+  },
+
   uploadChunk(formData, onProgress) {
     return api.post('/file/chunk', formData, {
       headers: { 'Content-Type': 'multipart/form-data' },
@@ -33,6 +41,10 @@ export const fileApi = {
     return api.post('/file/merge', data)
   },
 
+  getMergeJob(jobId) {
+    return api.get(`/file/merge/${jobId}`)
+  },
+
   instantUpload(data) {
     return api.post('/file/instant', data)
   },
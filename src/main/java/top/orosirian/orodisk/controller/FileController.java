@@ -1,26 +1,28 @@
 package top.orosirian.orodisk.controller;
 
 import cn.dev33.satoken.annotation.SaCheckLogin;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import top.orosirian.orodisk.model.Result;
+import top.orosirian.orodisk.model.dto.FileData;
 import top.orosirian.orodisk.model.request.CreateFolderRequest;
 import top.orosirian.orodisk.model.request.MergeFileRequest;
 import top.orosirian.orodisk.model.request.MoveFileRequest;
 import top.orosirian.orodisk.model.request.RenameFileRequest;
+import top.orosirian.orodisk.model.request.UploadSessionRequest;
 import top.orosirian.orodisk.model.response.CheckFileResponse;
 import top.orosirian.orodisk.model.response.FileListResponse;
 import top.orosirian.orodisk.model.response.FileResponse;
+import top.orosirian.orodisk.model.response.MergeJobResponse;
 import top.orosirian.orodisk.service.FileService;
+import top.orosirian.orodisk.service.MergeJobService;
+import top.orosirian.orodisk.service.UploadSessionService;
 import top.orosirian.orodisk.service.VectorQueueService;
+import top.orosirian.orodisk.utils.FileStreamer;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 
 @RestController
 @RequestMapping("/file")
@@ -28,9 +30,16 @@ public class FileController {
 
     private final FileService fileService;
     private final VectorQueueService vectorQueueService;
-    public FileController(FileService fileService, VectorQueueService vectorQueueService) {
+    private final FileStreamer fileStreamer;
+    private final MergeJobService mergeJobService;
+    private final UploadSessionService uploadSessionService;
+    public FileController(FileService fileService, VectorQueueService vectorQueueService, FileStreamer fileStreamer,
+                          MergeJobService mergeJobService, UploadSessionService uploadSessionService) {
         this.fileService = fileService;
         this.vectorQueueService = vectorQueueService;
+        this.fileStreamer = fileStreamer;
+        this.mergeJobService = mergeJobService;
+        this.uploadSessionService = uploadSessionService;
     }
 
     @SaCheckLogin
@@ -38,7 +47,13 @@ public class FileController {
     public Result<FileListResponse> listFiles(
             @RequestParam(defaultValue = "0") Long parentId,
             @RequestParam(required = false) Long lastFileId,
+            @RequestParam(required = false) String sort,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false) Integer pageSize) {
+        if (sort != null && !sort.isEmpty()) {
+            return Result.success(fileService.listFiles(parentId, sort, order, cursor, pageSize));
+        }
         return Result.success(fileService.listFiles(parentId, lastFileId, pageSize));
     }
 
@@ -58,6 +73,19 @@ public class FileController {
         return Result.success(fileService.checkFile(identifier, fileName, totalSize, parentId));
     }
 
+    @SaCheckLogin
+    @PostMapping("/session")
+    public Result<CheckFileResponse> startUploadSession(@RequestBody UploadSessionRequest request) {
+        return Result.success(uploadSessionService.start(request));
+    }
+
+    @SaCheckLogin
+    @DeleteMapping("/session/{identifier}")
+    public Result<Void> abortUploadSession(@PathVariable String identifier) throws IOException {
+        uploadSessionService.abort(identifier);
+        return Result.success();
+    }
+
     @SaCheckLogin
     @PostMapping("/chunk")
     public Result<Void> uploadChunk(
@@ -66,18 +94,23 @@ public class FileController {
             @RequestParam Integer chunkNumber,
             @RequestParam Integer totalChunks,
             @RequestParam Long totalSize,
+            @RequestParam(required = false) Long chunkSize,
+            @RequestParam(required = false) String chunkMd5,
             @RequestParam(defaultValue = "0") Long parentId) throws IOException {
-        fileService.uploadChunk(file, identifier, chunkNumber, totalChunks, totalSize, parentId);
+        fileService.uploadChunk(file, identifier, chunkNumber, totalChunks, totalSize, chunkSize, chunkMd5, parentId);
         return Result.success();
     }
 
     @SaCheckLogin
     @PostMapping("/merge")
-    public Result<FileResponse> mergeFile(@RequestBody MergeFileRequest request) throws IOException {
-        FileResponse response = fileService.mergeFile(request);
-        Long storageId = fileService.getStorageId(response.getFileId());
-        vectorQueueService.sendVectorizeMessage(storageId);
-        return Result.success(response);
+    public Result<MergeJobResponse> mergeFile(@RequestBody MergeFileRequest request) {
+        return Result.success(mergeJobService.submit(request));
+    }
+
+    @SaCheckLogin
+    @GetMapping("/merge/{jobId}")
+    public Result<MergeJobResponse> getMergeJob(@PathVariable String jobId) {
+        return Result.success(mergeJobService.getJob(jobId));
     }
 
     @SaCheckLogin
@@ -91,13 +124,26 @@ public class FileController {
     public Result<FileResponse> uploadFile(
             @RequestParam("file") MultipartFile file,
             @RequestParam(defaultValue = "0") Long parentId,
-            @RequestParam("md5") String md5) throws IOException {
+            @RequestParam(value = "md5", required = false) String md5) throws IOException {
         FileResponse response = fileService.uploadFile(file, parentId, md5);
         Long storageId = fileService.getStorageId(response.getFileId());
         vectorQueueService.sendVectorizeMessage(storageId);
         return Result.success(response);
     }
 
+    @SaCheckLogin
+    @PutMapping("/upload/stream")
+    public Result<FileResponse> uploadStream(
+            @RequestParam String fileName,
+            @RequestParam(defaultValue = "0") Long parentId,
+            @RequestParam(value = "md5", required = false) String md5,
+            HttpServletRequest request) throws IOException {
+        FileResponse response = fileService.uploadStream(request.getInputStream(), request.getContentLengthLong(), fileName, parentId, md5);
+        Long storageId = fileService.getStorageId(response.getFileId());
+        vectorQueueService.sendVectorizeMessage(storageId);
+        return Result.success(response);
+    }
+
     @SaCheckLogin
     @DeleteMapping("/{fileId}")
     public Result<Void> deleteFile(@PathVariable Long fileId) {
@@ -148,48 +194,16 @@ public class FileController {
 
     @SaCheckLogin
     @GetMapping("/download/{fileId}")
-    public void downloadFile(@PathVariable Long fileId, HttpServletResponse response) throws IOException {
-        java.io.File file = fileService.downloadFile(fileId);
-        String fileName = file.getName();
-
-        response.setContentType("application/octet-stream");
-        response.setHeader("Content-Disposition", "attachment; filename=" +
-                URLEncoder.encode(fileName, StandardCharsets.UTF_8));
-        response.setHeader("Content-Length", String.valueOf(file.length()));
-
-        try (InputStream is = new FileInputStream(file);
-             OutputStream os = response.getOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-            }
-            os.flush();
-        }
+    public void downloadFile(@PathVariable Long fileId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FileData fileData = fileService.downloadFile(fileId);
+        fileStreamer.stream(request, response, fileData, "application/octet-stream", true, false);
     }
 
     @SaCheckLogin
     @GetMapping("/preview/{fileId}")
-    public void previewFile(@PathVariable Long fileId, HttpServletResponse response) throws IOException {
-        var fileData = fileService.getFileForPreview(fileId);
-        java.io.File file = fileData.getFile();
-        String fileName = fileData.getFileName();
-        String contentType = getContentType(fileName);
-        
-        response.setContentType(contentType);
-        response.setHeader("Content-Disposition", "inline; filename=" +
-                URLEncoder.encode(fileName, StandardCharsets.UTF_8));
-        response.setHeader("Content-Length", String.valueOf(file.length()));
-
-        try (InputStream is = new FileInputStream(file);
-             OutputStream os = response.getOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-            }
-            os.flush();
-        }
+    public void previewFile(@PathVariable Long fileId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FileData fileData = fileService.getFileForPreview(fileId);
+        fileStreamer.stream(request, response, fileData, getContentType(fileData.getFileName()), false, false);
     }
 
     private String getContentType(String fileName) {
@@ -1,6 +1,7 @@
 package top.orosirian.orodisk.controller;
 
 import cn.dev33.satoken.annotation.SaCheckLogin;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.web.bind.annotation.*;
 import top.orosirian.orodisk.model.Result;
@@ -42,16 +43,18 @@ public class ShareController {
     public void downloadShare(
             @PathVariable String shareCode,
             @RequestParam(required = false) String password,
+            HttpServletRequest request,
             HttpServletResponse response) throws Exception {
-        shareService.downloadShare(shareCode, password, response);
+        shareService.downloadShare(shareCode, password, request, response);
     }
 
     @GetMapping("/preview/{shareCode}")
     public void previewShare(
             @PathVariable String shareCode,
             @RequestParam(required = false) String password,
+            HttpServletRequest request,
             HttpServletResponse response) throws Exception {
-        shareService.previewShare(shareCode, password, response);
+        shareService.previewShare(shareCode, password, request, response);
     }
 
     @SaCheckLogin
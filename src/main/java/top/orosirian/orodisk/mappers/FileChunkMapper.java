@@ -4,6 +4,7 @@ import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import top.orosirian.orodisk.model.entity.FileChunk;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
@@ -23,4 +24,8 @@ public interface FileChunkMapper {
 
     int countByIdentifier(@Param("fileIdentifier") String fileIdentifier);
 
+    List<String> selectStaleIdentifiers(@Param("before") LocalDateTime before, @Param("limit") int limit);
+
+    int deleteByIdentifiers(@Param("identifiers") List<String> identifiers);
+
 }
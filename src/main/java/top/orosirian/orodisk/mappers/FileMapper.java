@@ -2,6 +2,9 @@ package top.orosirian.orodisk.mappers;
 
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import top.orosirian.orodisk.model.dto.FileCursor;
+import top.orosirian.orodisk.model.dto.FolderStats;
+import top.orosirian.orodisk.model.dto.UserUsage;
 import top.orosirian.orodisk.model.entity.FileEntity;
 
 import java.util.List;
@@ -25,6 +28,14 @@ public interface FileMapper {
                                                           @Param("lastFileId") Long lastFileId,
                                                           @Param("pageSize") int pageSize);
 
+    List<FileEntity> selectByUserIdAndParentIdSorted(@Param("userId") Long userId,
+                                                      @Param("parentId") Long parentId,
+                                                      @Param("status") Integer status,
+                                                      @Param("sort") String sort,
+                                                      @Param("desc") boolean desc,
+                                                      @Param("cursor") FileCursor cursor,
+                                                      @Param("pageSize") int pageSize);
+
     List<FileEntity> selectByUserId(@Param("userId") Long userId, @Param("status") Integer status);
 
     FileEntity selectByUserIdAndParentIdAndFileName(@Param("userId") Long userId, @Param("parentId") Long parentId, @Param("fileName") String fileName, @Param("status") Integer status);
@@ -35,7 +46,40 @@ public interface FileMapper {
 
     int updateStorageId(@Param("fileId") Long fileId, @Param("storageId") Long storageId);
 
-    int updateParentId(@Param("fileId") Long fileId, @Param("parentId") Long parentId);
+    int updateParentId(@Param("fileId") Long fileId, @Param("parentId") Long parentId, @Param("path") String path);
+
+    boolean existsInSubtree(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix,
+                            @Param("fileType") Integer fileType, @Param("status") Integer status);
+
+    int deleteSubtree(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix,
+                      @Param("fileType") Integer fileType, @Param("status") Integer status);
+
+    int recycleSubtree(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix, @Param("rootId") Long rootId,
+                       @Param("fromStatus") Integer fromStatus, @Param("toStatus") Integer toStatus);
+
+    int restoreSubtree(@Param("userId") Long userId, @Param("rootId") Long rootId,
+                       @Param("fromStatus") Integer fromStatus, @Param("toStatus") Integer toStatus);
+
+    /**
+     * @param pathPrefix 为空时统计用户回收站中的全部文件
+     */
+    Long sumRecycledFileSize(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix,
+                             @Param("statuses") List<Integer> statuses, @Param("fileType") Integer fileType);
+
+    int deleteRecycled(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix, @Param("statuses") List<Integer> statuses);
+
+    int addFolderStats(@Param("deltas") List<FolderStats> deltas);
+
+    FolderStats sumSubtreeStats(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix);
+
+    Long sumChildrenSize(@Param("userId") Long userId, @Param("parentId") Long parentId);
+
+    List<FileEntity> selectFolderPage(@Param("lastFileId") Long lastFileId, @Param("limit") int limit);
+
+    int fixFolderStats(@Param("fileId") Long fileId, @Param("oldFolderSize") long oldFolderSize, @Param("oldItemCount") long oldItemCount,
+                       @Param("folderSize") long folderSize, @Param("itemCount") long itemCount);
+
+    int updateSubtreePath(@Param("userId") Long userId, @Param("oldPrefix") String oldPrefix, @Param("newPrefix") String newPrefix);
 
     int updateFileName(@Param("fileId") Long fileId, @Param("fileName") String fileName);
 
@@ -47,6 +91,8 @@ public interface FileMapper {
 
     Long sumFileSizeByUserId(@Param("userId") Long userId, @Param("status") Integer status);
 
+    List<UserUsage> sumFileSizeGroupByUserIds(@Param("userIds") List<Long> userIds);
+
     List<FileEntity> selectRecycleByUserId(Long userId);
 
     List<FileEntity> selectRecycleByUserIdWithCursor(@Param("userId") Long userId,
@@ -55,7 +101,7 @@ public interface FileMapper {
 
     int restoreByFileId(Long fileId);
 
-    int deleteRecycleByUserId(Long userId);
+    int deleteRecycleByUserId(@Param("userId") Long userId, @Param("statuses") List<Integer> statuses);
 
     Long selectStorageId(Long fileId);
 
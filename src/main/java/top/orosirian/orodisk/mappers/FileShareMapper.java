@@ -27,4 +27,6 @@ public interface FileShareMapper {
 
     int deleteByFileId(Long fileId);
 
+    int deleteBySubtree(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix);
+
 }
@@ -1,9 +1,12 @@
 package top.orosirian.orodisk.mappers;
 
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import top.orosirian.orodisk.model.entity.Storage;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @Mapper
 public interface StorageMapper {
@@ -24,6 +27,43 @@ public interface StorageMapper {
 
     int decrementRefCount(Long storageId);
 
-    List<Storage> selectByRefCountZero();
+    /**
+     * @param pathPrefix 为空时为用户回收站中的全部文件，否则为某个回收站文件夹子树中的文件
+     */
+    int decrementRefCountsByRecycled(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix,
+                                     @Param("statuses") List<Integer> statuses);
+
+    List<Storage> selectPage(@Param("lastStorageId") Long lastStorageId, @Param("limit") int limit);
+
+    int updatePath(@Param("storageId") Long storageId, @Param("volumeId") Integer volumeId,
+                   @Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    int updateVolume(@Param("storageId") Long storageId, @Param("storagePath") String storagePath,
+                     @Param("oldVolumeId") Integer oldVolumeId, @Param("newVolumeId") Integer newVolumeId);
+
+    List<Storage> selectVolumePage(@Param("volumeId") Integer volumeId, @Param("lastStorageId") Long lastStorageId, @Param("limit") int limit);
+
+    List<Storage> selectOrphanPage(@Param("lastStorageId") Long lastStorageId, @Param("limit") int limit);
+
+    List<Storage> lockOrphansByIds(@Param("storageIds") List<Long> storageIds);
+
+    int deleteOrphansByIds(@Param("storageIds") List<Long> storageIds);
+
+    List<Storage> selectByPackId(Long packId);
+
+    long sumSizeByPackId(Long packId);
+
+    int updatePackLocation(@Param("storageId") Long storageId, @Param("oldPackId") Long oldPackId,
+                           @Param("newPackId") Long newPackId, @Param("newOffset") Long newOffset);
+
+    int addAccessCounts(@Param("counts") Map<Long, Long> counts, @Param("accessTime") LocalDateTime accessTime,
+                        @Param("windowStart") LocalDateTime windowStart);
+
+    List<Storage> selectHotCandidates(@Param("volumeIds") List<Integer> volumeIds, @Param("after") LocalDateTime after,
+                                      @Param("minCount") int minCount, @Param("limit") int limit);
+
+    List<Storage> selectColdCandidates(@Param("volumeId") Integer volumeId, @Param("before") LocalDateTime before, @Param("limit") int limit);
+
+    List<String> selectExistingPaths(@Param("volumeId") Integer volumeId, @Param("storagePaths") List<String> storagePaths);
 
 }
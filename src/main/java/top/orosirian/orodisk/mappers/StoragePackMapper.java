@@ -0,0 +1,22 @@
+package top.orosirian.orodisk.mappers;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import top.orosirian.orodisk.model.entity.StoragePack;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Mapper
+public interface StoragePackMapper {
+
+    int insert(StoragePack pack);
+
+    int deleteById(Long packId);
+
+    int updateStatus(@Param("packId") Long packId, @Param("oldStatus") Integer oldStatus, @Param("newStatus") Integer newStatus);
+
+    List<StoragePack> selectPageByStatus(@Param("status") Integer status, @Param("lastPackId") Long lastPackId,
+                                         @Param("before") LocalDateTime before, @Param("limit") int limit);
+
+}
@@ -0,0 +1,23 @@
+package top.orosirian.orodisk.mappers;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import top.orosirian.orodisk.model.entity.UploadSession;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Mapper
+public interface UploadSessionMapper {
+
+    int insert(UploadSession session);
+
+    int deleteById(Long sessionId);
+
+    int updateTotalSize(@Param("sessionId") Long sessionId, @Param("expectedSize") Long expectedSize, @Param("totalSize") Long totalSize);
+
+    UploadSession selectByUserIdAndIdentifier(@Param("userId") Long userId, @Param("fileIdentifier") String fileIdentifier);
+
+    List<UploadSession> selectCreatedBefore(@Param("lastSessionId") Long lastSessionId, @Param("before") LocalDateTime before, @Param("limit") int limit);
+
+}
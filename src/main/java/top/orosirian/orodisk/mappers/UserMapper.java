@@ -21,12 +21,24 @@ public interface UserMapper {
 
     List<User> selectAll();
 
+    List<User> selectQuotaPage(@Param("lastUserId") Long lastUserId, @Param("limit") int limit);
+
+    int fixUsedQuota(@Param("userId") Long userId, @Param("expected") Long expected, @Param("actual") Long actual);
+
     int updateQuota(@Param("userId") Long userId, @Param("usedQuota") Long usedQuota);
 
     int incrementQuota(@Param("userId") Long userId, @Param("fileSize") Long fileSize);
 
+    int tryIncrementQuota(@Param("userId") Long userId, @Param("fileSize") Long fileSize);
+
     int decrementQuota(@Param("userId") Long userId, @Param("fileSize") Long fileSize);
 
+    int reserveQuota(@Param("userId") Long userId, @Param("size") Long size);
+
+    int releaseQuota(@Param("userId") Long userId, @Param("size") Long size);
+
+    int commitReservedQuota(@Param("userId") Long userId, @Param("size") Long size);
+
     int updateStatus(@Param("userId") Long userId, @Param("status") Integer status);
 
 }
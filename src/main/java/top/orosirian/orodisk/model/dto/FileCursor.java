@@ -0,0 +1,58 @@
+package top.orosirian.orodisk.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import top.orosirian.orodisk.model.entity.FileEntity;
+import top.orosirian.orodisk.utils.enums.FileSortKey;
+import top.orosirian.orodisk.utils.exceptions.BusinessException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * 排序列表的翻页游标：上一页最后一行的排序列和file_id，对客户端不透明
+ * 游标带有产生它的排序方式，换了排序方式的游标不能继续使用
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileCursor {
+    private FileSortKey sort;
+    private boolean desc;
+    private Long fileId;
+    private Integer fileType;
+    private Long displaySize;
+    private LocalDateTime createdTime;
+    private String fileName;
+
+    public static FileCursor of(FileSortKey sort, boolean desc, FileEntity file) {
+        return new FileCursor(sort, desc, file.getFileId(), file.getFileType(), file.getDisplaySize(),
+                file.getCreatedTime(), file.getFileName());
+    }
+
+    public String encode() {
+        // 文件名可能含有分隔符，放在最后
+        String raw = String.join("|", sort.getValue(), desc ? "desc" : "asc", String.valueOf(fileId),
+                String.valueOf(fileType), String.valueOf(displaySize),
+                createdTime == null ? "" : createdTime.toString(), fileName);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static FileCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 7);
+            if (parts.length != 7) {
+                throw new BusinessException("Invalid cursor");
+            }
+            return new FileCursor(FileSortKey.of(parts[0]), "desc".equals(parts[1]), Long.parseLong(parts[2]),
+                    Integer.parseInt(parts[3]), Long.parseLong(parts[4]),
+                    parts[5].isEmpty() ? null : LocalDateTime.parse(parts[5]), parts[6]);
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new BusinessException("Invalid cursor");
+        }
+    }
+}
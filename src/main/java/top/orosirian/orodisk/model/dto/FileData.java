@@ -1,13 +1,39 @@
 package top.orosirian.orodisk.model.dto;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.enums.StorageCodec;
 
 import java.io.File;
 
 @Data
-@AllArgsConstructor
 public class FileData {
     private File file;
     private String fileName;
+    private Storage storage;
+    // 落盘内容在file中的起始位置和长度，打包存放的小文件只占打包文件中的一段；压缩存放时为压缩后的长度
+    private long offset;
+    private long length;
+
+    public FileData(File file, String fileName, Storage storage) {
+        this.file = file;
+        this.fileName = fileName;
+        this.storage = storage;
+        if (storage.getPackId() != null) {
+            this.offset = storage.getPackOffset();
+            this.length = StorageVolumes.storedLength(storage);
+        } else {
+            this.offset = 0;
+            this.length = file.length();
+        }
+    }
+
+    public boolean isPacked() {
+        return storage.getPackId() != null;
+    }
+
+    public StorageCodec getCodec() {
+        return StorageCodec.of(storage.getCodec());
+    }
 }
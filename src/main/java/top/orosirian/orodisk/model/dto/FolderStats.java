@@ -0,0 +1,17 @@
+package top.orosirian.orodisk.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 文件夹统计或其增量：folderSize为子树中正常文件的总大小，itemCount为子树中正常的文件和文件夹数
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FolderStats {
+    private Long fileId;
+    private long folderSize;
+    private long itemCount;
+}
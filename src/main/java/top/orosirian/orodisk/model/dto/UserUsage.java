@@ -0,0 +1,9 @@
+package top.orosirian.orodisk.model.dto;
+
+import lombok.Data;
+
+@Data
+public class UserUsage {
+    private Long userId;
+    private Long usedSize;
+}
@@ -18,6 +18,8 @@ public class FileEntity implements Serializable {
 
     private Long parentId;
 
+    private String path;
+
     private Long storageId;
 
     private String fileName;
@@ -26,6 +28,12 @@ public class FileEntity implements Serializable {
 
     private Long fileSize;
 
+    private Long folderSize;
+
+    private Long itemCount;
+
+    private Long displaySize;
+
     private Integer status;
 
     private LocalDateTime createdTime;
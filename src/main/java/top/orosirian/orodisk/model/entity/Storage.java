@@ -18,10 +18,24 @@ public class Storage implements Serializable {
 
     private String storagePath;
 
+    private Integer volumeId;
+
+    private Long packId;
+
+    private Long packOffset;
+
+    private Integer codec;
+
+    private Long storedSize;
+
     private String md5;
 
     private Integer refCount;
 
+    private Integer accessCount;
+
+    private LocalDateTime lastAccessTime;
+
     private LocalDateTime createdTime;
 
     private LocalDateTime updatedTime;
@@ -0,0 +1,25 @@
+package top.orosirian.orodisk.model.entity;
+
+import lombok.Data;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Data
+public class StoragePack implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private Long packId;
+
+    private Integer volumeId;
+
+    private Integer status;
+
+    private LocalDateTime createdTime;
+
+    private LocalDateTime updatedTime;
+
+}
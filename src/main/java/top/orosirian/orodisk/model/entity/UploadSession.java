@@ -0,0 +1,31 @@
+package top.orosirian.orodisk.model.entity;
+
+import lombok.Data;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Data
+public class UploadSession implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private Long sessionId;
+
+    private Long userId;
+
+    private String fileIdentifier;
+
+    private String fileName;
+
+    private Long parentId;
+
+    private Long totalSize;
+
+    private Integer totalChunks;
+
+    private LocalDateTime createdTime;
+
+}
@@ -22,6 +22,8 @@ public class User implements Serializable {
 
     private Long usedQuota;
 
+    private Long reservedQuota;
+
     private Integer status;
 
     private Integer type;
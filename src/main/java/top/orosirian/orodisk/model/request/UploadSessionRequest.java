@@ -0,0 +1,18 @@
+package top.orosirian.orodisk.model.request;
+
+import lombok.Data;
+
+@Data
+public class UploadSessionRequest {
+
+    private String identifier;
+
+    private String fileName;
+
+    private Integer totalChunks;
+
+    private Long totalSize;
+
+    private Long parentId;
+
+}
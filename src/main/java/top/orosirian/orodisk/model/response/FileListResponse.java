@@ -17,4 +17,9 @@ public class FileListResponse {
 
     private Boolean hasMore;
 
+    /**
+     * 按排序列表时下一页的游标，没有更多时为空
+     */
+    private String nextCursor;
+
 }
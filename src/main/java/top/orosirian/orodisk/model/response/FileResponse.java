@@ -19,6 +19,9 @@ public class FileResponse {
 
     private String fileSizeFormat;
 
+    // 文件夹子树中的文件和文件夹数，文件为null
+    private Long itemCount;
+
     private Integer status;
 
     private LocalDateTime createdTime;
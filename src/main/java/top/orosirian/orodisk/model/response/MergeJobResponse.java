@@ -0,0 +1,16 @@
+package top.orosirian.orodisk.model.response;
+
+import lombok.Data;
+
+@Data
+public class MergeJobResponse {
+
+    private String jobId;
+
+    private Integer status;
+
+    private String message;
+
+    private FileResponse file;
+
+}
@@ -6,13 +6,17 @@ import org.springframework.ai.reader.TextReader;
 import org.springframework.ai.reader.tika.TikaDocumentReader;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import top.orosirian.orodisk.mappers.FileMapper;
 import top.orosirian.orodisk.mappers.StorageMapper;
 import top.orosirian.orodisk.model.entity.Storage;
 import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.StorageCompressor;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.enums.StorageCodec;
 
 import java.io.File;
 import java.nio.file.Path;
@@ -24,21 +28,23 @@ import java.util.*;
 public class DocumentVectorService {
 
     private final FileMapper fileMapper;
-    @Value("${disk.storage.base-path}")
-    private String basePath;
-
     private final VectorStore vectorStore;
     private final StorageMapper storageMapper;
+    private final StorageVolumes storageVolumes;
+    private final StorageCompressor storageCompressor;
 
     private static final List<String> SUPPORTED_EXTENSIONS = List.of(
             "txt", "md", "doc", "docx", "xls", "xlsx",
             "ppt", "pptx", "csv", "json", "xml", "html", "htm"
     );
 
-    public DocumentVectorService(VectorStore vectorStore, StorageMapper storageMapper, FileMapper fileMapper) {
+    public DocumentVectorService(VectorStore vectorStore, StorageMapper storageMapper, FileMapper fileMapper, StorageVolumes storageVolumes,
+                                 StorageCompressor storageCompressor) {
         this.vectorStore = vectorStore;
         this.storageMapper = storageMapper;
         this.fileMapper = fileMapper;
+        this.storageVolumes = storageVolumes;
+        this.storageCompressor = storageCompressor;
     }
 
     public boolean isSupportedFileType(String fileName) {
@@ -62,14 +68,22 @@ public class DocumentVectorService {
             return;
         }
 
-        File physicalFile = new File(basePath, storage.getStoragePath());
+        File physicalFile = storageVolumes.resolveFile(storage);
         if (!physicalFile.exists()) {
             log.warn("Physical file not found: {}", physicalFile.getAbsolutePath());
             return;
         }
 
         try {
-            FileSystemResource resource = new FileSystemResource(physicalFile);
+            // 打包存放的小文件只占打包文件中的一段，压缩存放的需要解压，读出后交给解析器
+            Resource resource = storage.getPackId() != null || StorageCodec.of(storage.getCodec()) != StorageCodec.NONE
+                    ? new ByteArrayResource(storageCompressor.readAllBytes(storage)) {
+                        @Override
+                        public String getFilename() {
+                            return fileName;
+                        }
+                    }
+                    : new FileSystemResource(physicalFile);
             List<Document> documents = switch (extension) {
                 case "txt", "md", "csv", "json", "xml", "html", "htm" -> {
                     TextReader reader = new TextReader(resource);
@@ -3,19 +3,24 @@ package top.orosirian.orodisk.service;
 import cn.dev33.satoken.stp.StpUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import org.springframework.beans.factory.annotation.Value;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
-import top.orosirian.orodisk.mappers.FileChunkMapper;
 import top.orosirian.orodisk.mappers.FileMapper;
 import top.orosirian.orodisk.mappers.FileShareMapper;
 import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.model.dto.FileCursor;
 import top.orosirian.orodisk.model.dto.FileData;
-import top.orosirian.orodisk.model.entity.FileChunk;
+import top.orosirian.orodisk.model.dto.FolderStats;
 import top.orosirian.orodisk.model.entity.FileEntity;
 import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.model.entity.UploadSession;
 import top.orosirian.orodisk.model.request.CreateFolderRequest;
 import top.orosirian.orodisk.model.request.MergeFileRequest;
 import top.orosirian.orodisk.model.request.MoveFileRequest;
@@ -26,60 +31,155 @@ import top.orosirian.orodisk.model.response.FileResponse;
 import top.orosirian.orodisk.utils.exceptions.BusinessException;
 import top.orosirian.orodisk.utils.Constant;
 import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.FolderStatsTracker;
+import top.orosirian.orodisk.utils.ListingCache;
 import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.PackStore;
+import top.orosirian.orodisk.utils.StorageAccessTracker;
+import top.orosirian.orodisk.utils.StorageCompressor;
+import top.orosirian.orodisk.utils.StorageLayout;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.UploadDigestTracker;
+import top.orosirian.orodisk.utils.enums.FileSortKey;
 import top.orosirian.orodisk.utils.enums.FileStatus;
 import top.orosirian.orodisk.utils.enums.FileType;
+import top.orosirian.orodisk.utils.enums.StorageCodec;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 @Slf4j
 @Service
 public class FileService {
 
-    @Value("${disk.storage.base-path}")
-    private String basePath;
-
-    @Value("${disk.storage.temp-path}")
-    private String tempPath;
-
     private final FileMapper fileMapper;
     private final StorageMapper storageMapper;
-    private final FileChunkMapper fileChunkMapper;
     private final FileShareMapper fileShareMapper;
     private final UserService userService;
+    private final UploadSessionService uploadSessionService;
     private final StringRedisTemplate redisTemplate;
-
-
-    public FileService(FileMapper fileMapper, StorageMapper storageMapper, FileChunkMapper fileChunkMapper, 
-                       FileShareMapper fileShareMapper, UserService userService, StringRedisTemplate redisTemplate) {
+    private final TransactionTemplate transactionTemplate;
+    private final UploadDigestTracker uploadDigestTracker;
+    private final StorageLayout storageLayout;
+    private final StorageVolumes storageVolumes;
+    private final PackStore packStore;
+    private final StorageAccessTracker storageAccessTracker;
+    private final StorageCompressor storageCompressor;
+    private final FolderStatsTracker folderStatsTracker;
+    private final ListingCache listingCache;
+
+
+    public FileService(FileMapper fileMapper, StorageMapper storageMapper, UploadSessionService uploadSessionService, 
+                       FileShareMapper fileShareMapper, UserService userService, StringRedisTemplate redisTemplate,
+                       TransactionTemplate transactionTemplate, UploadDigestTracker uploadDigestTracker,
+                       StorageLayout storageLayout, StorageVolumes storageVolumes, PackStore packStore,
+                       StorageAccessTracker storageAccessTracker, StorageCompressor storageCompressor,
+                       FolderStatsTracker folderStatsTracker, ListingCache listingCache) {
         this.fileMapper = fileMapper;
         this.storageMapper = storageMapper;
-        this.fileChunkMapper = fileChunkMapper;
+        this.uploadSessionService = uploadSessionService;
         this.fileShareMapper = fileShareMapper;
         this.userService = userService;
         this.redisTemplate = redisTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.uploadDigestTracker = uploadDigestTracker;
+        this.storageLayout = storageLayout;
+        this.storageVolumes = storageVolumes;
+        this.packStore = packStore;
+        this.storageAccessTracker = storageAccessTracker;
+        this.storageCompressor = storageCompressor;
+        this.folderStatsTracker = folderStatsTracker;
+        this.listingCache = listingCache;
     }
 
     private static final int DEFAULT_PAGE_SIZE = 50;
 
+    private static final String ROOT_PATH = "/";
+
+    // 回收站中的行：单独删除的和随上级文件夹进入的
+    private static final List<Integer> RECYCLED_STATUSES = List.of(FileStatus.RECYCLE.getCode(), FileStatus.RECYCLE_NESTED.getCode());
+
+    private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+
+    private static final long MERGE_LOCK_RETRY_INTERVAL = 500;
+    private static final int MERGE_LOCK_RETRY_COUNT = 20;
+
     public FileListResponse listFiles(Long parentId, Long lastFileId, Integer pageSize) {
         Long userId = StpUtil.getLoginIdAsLong();
         int size = pageSize != null && pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
-        
+        return listingCache.get(userId, parentId, lastFileId + ":" + size, () -> loadFiles(userId, parentId, lastFileId, size));
+    }
+
+    /**
+     * 按sort排序翻页，cursor为上一页返回的nextCursor；第一页不传cursor
+     */
+    public FileListResponse listFiles(Long parentId, String sort, String order, String cursor, Integer pageSize) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        int size = pageSize != null && pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+        FileSortKey sortKey = FileSortKey.of(sort);
+        boolean desc = "desc".equalsIgnoreCase(order);
+        FileCursor after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            after = FileCursor.decode(cursor);
+            if (after.getSort() != sortKey || after.isDesc() != desc) {
+                throw new BusinessException("Cursor does not match the sort order");
+            }
+        }
+        FileCursor from = after;
+        String page = sortKey.getValue() + ":" + (desc ? "desc" : "asc") + ":" + cursor + ":" + size;
+        return listingCache.get(userId, parentId, page, () -> loadSortedFiles(userId, parentId, sortKey, desc, from, size));
+    }
+
+    private FileListResponse loadSortedFiles(Long userId, Long parentId, FileSortKey sortKey, boolean desc,
+                                             FileCursor after, int size) {
+        List<FileEntity> files = fileMapper.selectByUserIdAndParentIdSorted(
+                userId, parentId, FileStatus.NORMAL.getCode(), sortKey.getValue(), desc, after, size + 1);
+
+        FileListResponse response = new FileListResponse();
+        response.setFiles(new ArrayList<>());
+        FileEntity last = null;
+        for (FileEntity file : files.subList(0, Math.min(size, files.size()))) {
+            response.getFiles().add(convertToFileResponse(file));
+            last = file;
+        }
+
+        Long totalSize = folderTotalSize(userId, parentId);
+        response.setTotalSize(totalSize);
+        response.setTotalSizeFormat(Funcs.formatFileSize(totalSize));
+        response.setLastFileId(last != null ? last.getFileId() : null);
+        response.setHasMore(files.size() > size);
+        if (files.size() > size) {
+            response.setNextCursor(FileCursor.of(sortKey, desc, last).encode());
+        }
+        return response;
+    }
+
+    private FileListResponse loadFiles(Long userId, Long parentId, Long lastFileId, int size) {
+
         List<FileEntity> files = fileMapper.selectByUserIdAndParentIdWithCursor(
                 userId, parentId, FileStatus.NORMAL.getCode(), lastFileId, size + 1);
 
         FileListResponse response = new FileListResponse();
         response.setFiles(new ArrayList<>());
 
-        Long totalSize = 0L;
         int count = 0;
         Long lastId = null;
         
@@ -89,11 +189,11 @@ public class FileService {
             }
             FileResponse fileResponse = convertToFileResponse(file);
             response.getFiles().add(fileResponse);
-            totalSize += file.getFileSize();
             lastId = file.getFileId();
             count++;
         }
 
+        Long totalSize = folderTotalSize(userId, parentId);
         response.setTotalSize(totalSize);
         response.setTotalSizeFormat(Funcs.formatFileSize(totalSize));
         response.setLastFileId(lastId);
@@ -101,6 +201,17 @@ public class FileService {
         return response;
     }
 
+    /**
+     * 整个文件夹的大小而不是当前页的合计；根目录没有对应的行，按直接子项汇总
+     */
+    private Long folderTotalSize(Long userId, Long parentId) {
+        if (parentId == 0) {
+            return fileMapper.sumChildrenSize(userId, parentId);
+        }
+        FileEntity folder = fileMapper.selectById(parentId, FileStatus.NORMAL.getCode());
+        return folder != null && folder.getUserId().equals(userId) ? folder.getFolderSize() : 0L;
+    }
+
     @Transactional
     public FileResponse createFolder(CreateFolderRequest request) {
         // 并发问题：事务A和B分别SELECT，都发现existFile==null，都执行插入，于是多个同名文件夹
@@ -116,6 +227,7 @@ public class FileService {
             FileEntity folder = new FileEntity();
             folder.setUserId(userId);
             folder.setParentId(request.getParentId());
+            folder.setPath(childPath(userId, request.getParentId()));
             folder.setStorageId(0L);
             folder.setFileName(request.getFolderName());
             folder.setFileType(FileType.FOLDER.getCode());
@@ -123,6 +235,8 @@ public class FileService {
             folder.setStatus(FileStatus.NORMAL.getCode());
 
             fileMapper.insert(folder);
+            folderStatsTracker.record(userId, folder.getPath(), 0, 1);
+            listingCache.invalidate(userId, request.getParentId());
             log.info("创建文件夹成功: userId={}, folderName={}", userId, request.getFolderName());
 
             return convertToFileResponse(folder);
@@ -130,89 +244,159 @@ public class FileService {
     }
 
 
-    @Transactional
     public FileResponse uploadFile(MultipartFile multipartFile, Long parentId, String md5) throws IOException {
+        try (InputStream in = multipartFile.getInputStream()) {
+            return uploadStream(in, multipartFile.getSize(), multipartFile.getOriginalFilename(), parentId, md5);
+        }
+    }
+
+    /**
+     * 单次读取请求体：边写入存储目录下的暂存文件边计算MD5，以服务端算出的MD5做秒传判定，
+     * 新内容通过同一文件系统内的rename落到最终路径，不再有第二次整文件写入
+     *
+     * @param declaredSize 客户端声明的大小，未知时为-1
+     * @param expectedMd5  客户端声明的MD5，可为空；不为空时必须与实际内容一致
+     */
+    public FileResponse uploadStream(InputStream in, long declaredSize, String originalFilename,
+                                     Long parentId, String expectedMd5) throws IOException {
         Long userId = StpUtil.getLoginIdAsLong();
-        
-        // ========== 第一步：前置校验 ==========
-        UserService.UserQuota quota = userService.getUserQuota(userId);
-        
-        String originalFilename = multipartFile.getOriginalFilename();
+
         if (originalFilename == null || originalFilename.isEmpty()) {
             originalFilename = "unnamed";
         }
-        
-        File tempFile = saveToTempFile(multipartFile);
-        long fileSize = tempFile.length();
-        
-        if (quota.getUsedQuota() + fileSize > quota.getTotalQuota()) {
-            boolean _ = tempFile.delete();
-            throw new BusinessException("Insufficient storage space");
-        }
-        
-        // ========== 第二步：获取分布式锁 ==========
-        // 文件名锁：防止同名文件并发上传
-        String fileLockKey = Constant.FILE_LOCK_PREFIX + userId + ":" + parentId + ":" + originalFilename;
-        // MD5锁：防止相同内容文件并发上传（秒传场景）
-        String md5LockKey = Constant.UPLOAD_LOCK_PREFIX + md5;
-        
-        DistributedLock fileLock = new DistributedLock(redisTemplate, fileLockKey, Constant.LOCK_LEASE_TIME);
-        DistributedLock md5Lock = new DistributedLock(redisTemplate, md5LockKey, Constant.LOCK_LEASE_TIME);
-        
-        // 快速失败策略：尝试获取锁，不等待
-        if (!fileLock.tryLock()) {
-            boolean _ = tempFile.delete();
-            throw new BusinessException("File with the same name is being uploaded, please retry later");
+
+        // ========== 第一步：前置校验，大小已知时先原子预占配额，预占记为上传会话，进程中断时由清理任务释放 ==========
+        UploadSession reservation = null;
+        long sizeLimit;
+        if (declaredSize >= 0) {
+            reservation = uploadSessionService.reserveStream(userId, originalFilename, parentId, declaredSize);
+            sizeLimit = declaredSize;
+        } else {
+            UserService.UserQuota quota = userService.getUserQuota(userId);
+            sizeLimit = quota.getTotalQuota() - quota.getUsedQuota() - quota.getReservedQuota();
         }
+
+        // ========== 第二步：选定存储卷，流式写入该卷的暂存文件并计算MD5 ==========
+        StorageVolumes.Placement placement = null;
+        Path stagingPath = null;
         try {
-            if (!md5Lock.tryLock()) {
-                throw new BusinessException("File with the same content is being uploaded, please retry later");
+            placement = storageVolumes.place(Math.max(declaredSize, 0));
+            int volumeId = placement.getVolumeId();
+            stagingPath = storageVolumes.stagingDir(volumeId).resolve(UUID.randomUUID().toString());
+            Files.createDirectories(stagingPath.getParent());
+            MessageDigest digest = DigestUtils.getMd5Digest();
+            long fileSize = 0;
+            try (OutputStream out = Files.newOutputStream(stagingPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    fileSize += bytesRead;
+                    if (fileSize > sizeLimit) {
+                        throw new BusinessException(declaredSize >= 0 ? "Uploaded data exceeds the declared size" : "Insufficient storage space");
+                    }
+                    digest.update(buffer, 0, bytesRead);
+                    out.write(buffer, 0, bytesRead);
+                }
+            }
+            String md5 = Hex.encodeHexString(digest.digest());
+            if (expectedMd5 != null && !expectedMd5.isEmpty() && !expectedMd5.equalsIgnoreCase(md5)) {
+                throw new BusinessException("File content does not match the provided MD5");
+            }
+            if (reservation == null) {
+                reservation = uploadSessionService.reserveStream(userId, originalFilename, parentId, fileSize);
+            } else if (fileSize < reservation.getTotalSize()) {
+                uploadSessionService.shrinkStream(reservation, fileSize);
+            }
+
+            // ========== 第三步：获取分布式锁 ==========
+            // 文件名锁：防止同名文件并发上传
+            String fileLockKey = Constant.FILE_LOCK_PREFIX + userId + ":" + parentId + ":" + originalFilename;
+            // MD5锁：防止相同内容文件并发上传（秒传场景）
+            String md5LockKey = Constant.UPLOAD_LOCK_PREFIX + md5;
+
+            DistributedLock fileLock = new DistributedLock(redisTemplate, fileLockKey, Constant.LOCK_LEASE_TIME);
+            DistributedLock md5Lock = new DistributedLock(redisTemplate, md5LockKey, Constant.LOCK_LEASE_TIME);
+
+            // 快速失败策略：尝试获取锁，不等待
+            if (!fileLock.tryLock()) {
+                throw new BusinessException("File with the same name is being uploaded, please retry later");
             }
             try {
-                // ========== 第三步：文件名冲突检查 ==========
-                FileEntity existFile = fileMapper.selectByUserIdAndParentIdAndFileName(userId, parentId, originalFilename, FileStatus.NORMAL.getCode());
-                if (existFile != null) {
-                    throw new BusinessException("File already exists");
+                if (!md5Lock.tryLock()) {
+                    throw new BusinessException("File with the same content is being uploaded, please retry later");
                 }
-                
-                // ========== 第四步：处理物理文件（秒传或新建） ==========
-                Storage storage = storageMapper.selectByMd5(md5);
-                boolean isStorageExist = storage != null;
-                
-                if (isStorageExist) {
-                    storageMapper.incrementRefCount(storage.getStorageId());
-                    boolean _ = tempFile.delete();
-                    log.info("Instant upload: userId={}, fileName={}, md5={}", userId, originalFilename, md5);
-                } else {
-                    String extension = Funcs.getExtension(originalFilename);
-                    String storagePath = Funcs.generateStoragePath(md5, extension);
-                    Path targetPath = Paths.get(basePath, storagePath);
-                    Files.createDirectories(targetPath.getParent());
-                    Files.move(tempFile.toPath(), targetPath);
-                    boolean _ = tempFile.delete();
-                    
-                    storage = new Storage();
-                    storage.setStorageSize(fileSize);
-                    storage.setStoragePath(storagePath);
-                    storage.setMd5(md5);
-                    storage.setRefCount(1);
-                    storageMapper.insert(storage);
+                Path targetPath = null;
+                try {
+                    // ========== 第四步：文件名冲突检查 ==========
+                    FileEntity existFile = fileMapper.selectByUserIdAndParentIdAndFileName(userId, parentId, originalFilename, FileStatus.NORMAL.getCode());
+                    if (existFile != null) {
+                        throw new BusinessException("File already exists");
+                    }
+
+                    // ========== 第五步：处理物理文件（秒传或新建） ==========
+                    Storage existStorage = storageMapper.selectByMd5(md5);
+                    String storagePath = null;
+                    StoredContent stored = null;
+                    if (existStorage == null) {
+                        storagePath = storageLayout.generatePath(md5, Funcs.getExtension(originalFilename));
+                        stored = storeContent(volumeId, stagingPath, originalFilename, fileSize, storagePath);
+                        targetPath = stored.targetPath();
+                    }
+
+                    // ========== 第六步：落库，事务只覆盖元数据 ==========
+                    String fileName = originalFilename;
+                    String newStoragePath = storagePath;
+                    StoredContent storedContent = stored;
+                    long size = fileSize;
+                    UploadSession session = reservation;
+                    FileEntity file = transactionTemplate.execute(_ -> {
+                        Storage storage = existStorage;
+                        if (storage != null) {
+                            retainStorage(storage.getStorageId());
+                            log.info("Instant upload: userId={}, fileName={}, md5={}", userId, fileName, md5);
+                        } else {
+                            storage = new Storage();
+                            storage.setStorageSize(size);
+                            storage.setStoragePath(newStoragePath);
+                            storage.setVolumeId(volumeId);
+                            storedContent.applyTo(storage);
+                            storage.setMd5(md5);
+                            storage.setRefCount(1);
+                            storageMapper.insert(storage);
+                        }
+                        FileEntity created = createFileRecord(userId, parentId, storage.getStorageId(), fileName, FileType.FILE.getCode(), size);
+                        uploadSessionService.complete(session);
+                        return created;
+                    });
+                    targetPath = null;
+                    reservation = null;
+
+                    log.info("Upload file success: userId={}, fileName={}, md5={}", userId, originalFilename, md5);
+                    return convertToFileResponse(file);
+
+                } finally {
+                    // 落库失败时先撤回已移动的新文件再释放MD5锁，否则可能删掉同内容上传刚落位的文件
+                    try {
+                        if (targetPath != null) {
+                            Files.deleteIfExists(targetPath);
+                        }
+                    } finally {
+                        md5Lock.unlock();
+                    }
                 }
-                
-                FileEntity file = createFileRecord(userId, parentId, storage.getStorageId(), originalFilename, FileType.FILE.getCode(), fileSize);
-                userService.incrementUsedQuota(userId, fileSize);
-
-                log.info("Upload file success: userId={}, fileName={}, md5={}", userId, originalFilename, md5);
-                return convertToFileResponse(file);
-                
             } finally {
-                md5Lock.unlock();
+                fileLock.unlock();
             }
         } finally {
-            fileLock.unlock();
-            // 确保临时文件被删除（异常情况下）
-            if (tempFile.exists()) {
-                boolean _ = tempFile.delete();
+            // 确保暂存文件被删除
+            if (stagingPath != null) {
+                Files.deleteIfExists(stagingPath);
+            }
+            if (reservation != null) {
+                uploadSessionService.cancelStream(reservation);
+            }
+            if (placement != null) {
+                placement.close();
             }
         }
     }
@@ -231,15 +415,38 @@ public class FileService {
         }
 
         if (Objects.equals(file.getFileType(), FileType.FOLDER.getCode())) {
-            throw new BusinessException("Deleting folders is not allowed here");
+            recycleFolder(userId, file);
+            return;
         }
 
         fileMapper.updateStatus(fileId, FileStatus.RECYCLE.getCode());
         fileShareMapper.deleteByFileId(fileId);
+        folderStatsTracker.record(userId, file.getPath(), -file.getFileSize(), -1);
+        listingCache.invalidate(userId, file.getParentId());
 
         log.info("文件已移至回收站: fileId={}", fileId);
     }
 
+    /**
+     * 文件夹本身进入回收站，子树中正常的行整体标记为随之进入回收站，语句数与子树大小无关
+     */
+    private void recycleFolder(Long userId, FileEntity folder) {
+        String lockKey = Constant.FOLDER_LOCK_PREFIX + userId + ":" + folder.getFileId();
+        try (DistributedLock _ = new DistributedLock(redisTemplate, lockKey, Constant.LOCK_LEASE_TIME).lock()) {
+            String prefix = subtreePrefix(folder);
+            FolderStats stats = fileMapper.sumSubtreeStats(userId, prefix);
+            fileShareMapper.deleteBySubtree(userId, prefix);
+            fileShareMapper.deleteByFileId(folder.getFileId());
+            int nested = fileMapper.recycleSubtree(userId, prefix, folder.getFileId(),
+                    FileStatus.NORMAL.getCode(), FileStatus.RECYCLE_NESTED.getCode());
+            fileMapper.updateStatus(folder.getFileId(), FileStatus.RECYCLE.getCode());
+            folderStatsTracker.record(userId, folder.getPath(), -stats.getFolderSize(), -stats.getItemCount() - 1);
+            listingCache.invalidate(userId, folder.getParentId());
+
+            log.info("文件夹已移至回收站: folderId={}, 子项 {} 个", folder.getFileId(), nested);
+        }
+    }
+
     @Transactional
     public void deletePermanently(Long fileId) {
         // 会操作refCount与usedQuota，如果出现并发冲突，不像deleteFile那样结果一样，而会减掉两次导致错误
@@ -254,10 +461,6 @@ public class FileService {
             throw new BusinessException("No permission to delete this file");
         }
 
-        if (Objects.equals(file.getFileType(), FileType.FOLDER.getCode())) {
-            throw new BusinessException("Deleting folders is not allowed here");
-        }
-
         String lockKey = Constant.FILE_LOCK_PREFIX + userId + ":" + fileId;
         try (DistributedLock _ = new DistributedLock(redisTemplate, lockKey, Constant.LOCK_LEASE_TIME).lock()) {
             // 再次检查文件是否仍存在（可能已被其他请求删除）
@@ -266,6 +469,11 @@ public class FileService {
                 return;
             }
 
+            if (Objects.equals(fileAgain.getFileType(), FileType.FOLDER.getCode())) {
+                deleteRecycledFolder(userId, fileAgain);
+                return;
+            }
+
             Long fileSize = fileAgain.getFileSize();
 
             if (fileAgain.getStorageId() != null && fileAgain.getStorageId() > 0) {
@@ -283,6 +491,23 @@ public class FileService {
         }
     }
 
+    /**
+     * 子树中已在回收站的行（随之进入的和之前单独删除的）一并删除，引用计数和配额各聚合为一次更新
+     */
+    private void deleteRecycledFolder(Long userId, FileEntity folder) {
+        String prefix = subtreePrefix(folder);
+        Long totalFileSize = fileMapper.sumRecycledFileSize(userId, prefix, RECYCLED_STATUSES, FileType.FILE.getCode());
+        storageMapper.decrementRefCountsByRecycled(userId, prefix, RECYCLED_STATUSES);
+        int deleted = fileMapper.deleteRecycled(userId, prefix, RECYCLED_STATUSES);
+        fileMapper.deleteById(folder.getFileId());
+
+        if (totalFileSize > 0) {
+            userService.decrementUsedQuota(userId, totalFileSize);
+        }
+
+        log.info("文件夹已永久删除: folderId={}, 子项 {} 个, totalFileSize={}", folder.getFileId(), deleted, totalFileSize);
+    }
+
     public FileListResponse listRecycle(Long lastFileId, Integer pageSize) {
         Long userId = StpUtil.getLoginIdAsLong();
         int size = pageSize != null && pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
@@ -328,8 +553,8 @@ public class FileService {
             throw new BusinessException("No permission to restore this file");
         }
 
-        if (Objects.equals(file.getFileType(), FileType.FOLDER.getCode())) {
-            throw new BusinessException("Folder operations are not allowed here");
+        if (file.getParentId() != 0 && fileMapper.selectById(file.getParentId(), FileStatus.NORMAL.getCode()) == null) {
+            throw new BusinessException("The original folder no longer exists, restore it first");
         }
 
         String lockKey = Constant.FILE_LOCK_PREFIX + userId + ":" + file.getParentId() + ":" + file.getFileName();
@@ -340,6 +565,17 @@ public class FileService {
             }
 
             fileMapper.restoreByFileId(fileId);
+            listingCache.invalidate(userId, file.getParentId());
+            if (Objects.equals(file.getFileType(), FileType.FOLDER.getCode())) {
+                // 只恢复随该文件夹进入回收站的行，之前单独删除的仍留在回收站
+                int nested = fileMapper.restoreSubtree(userId, fileId,
+                        FileStatus.RECYCLE_NESTED.getCode(), FileStatus.NORMAL.getCode());
+                FolderStats stats = fileMapper.sumSubtreeStats(userId, subtreePrefix(file));
+                folderStatsTracker.record(userId, file.getPath(), stats.getFolderSize(), stats.getItemCount() + 1);
+                log.info("文件夹已恢复: folderId={}, 子项 {} 个", fileId, nested);
+                return;
+            }
+            folderStatsTracker.record(userId, file.getPath(), file.getFileSize(), 1);
 
             log.info("文件已恢复: fileId={}", fileId);
         }
@@ -351,28 +587,10 @@ public class FileService {
 
         String lockKey = Constant.LOCK_PREFIX + "recycle:" + userId;
         try (DistributedLock _ = new DistributedLock(redisTemplate, lockKey, Constant.LOCK_LEASE_TIME).lock()) {
-            List<FileEntity> files = fileMapper.selectRecycleByUserId(userId);
-
-            for (FileEntity file : files) {
-                if (Objects.equals(file.getFileType(), FileType.FOLDER.getCode())) {
-                    throw new BusinessException("Recycle bin contains folders, cannot clear");
-                }
-            }
-
-            Long totalFileSize = 0L;
-            for (FileEntity file : files) {
-                if (Objects.equals(file.getFileType(), FileType.FILE.getCode())) {
-                    totalFileSize += file.getFileSize();
-                }
-            }
-
-            for (FileEntity file : files) {
-                if (file.getStorageId() != null && file.getStorageId() > 0) {
-                    storageMapper.decrementRefCount(file.getStorageId());
-                }
-            }
-
-            fileMapper.deleteRecycleByUserId(userId);
+            // 引用计数和配额各聚合为一次更新，与回收站中的文件数无关
+            Long totalFileSize = fileMapper.sumRecycledFileSize(userId, null, RECYCLED_STATUSES, FileType.FILE.getCode());
+            storageMapper.decrementRefCountsByRecycled(userId, null, RECYCLED_STATUSES);
+            fileMapper.deleteRecycled(userId, null, RECYCLED_STATUSES);
 
             if (totalFileSize > 0) {
                 userService.decrementUsedQuota(userId, totalFileSize);
@@ -404,6 +622,7 @@ public class FileService {
             }
 
             fileMapper.updateFileName(request.getFileId(), request.getNewName());
+            listingCache.invalidate(userId, file.getParentId());
             file.setFileName(request.getNewName());
 
             log.info("文件重命名成功: fileId={}, newName={}", request.getFileId(), request.getNewName());
@@ -425,11 +644,18 @@ public class FileService {
             throw new BusinessException("No permission to move this file");
         }
 
+        String targetPath = ROOT_PATH;
         if (request.getTargetParentId() != 0) {
             FileEntity targetFolder = fileMapper.selectById(request.getTargetParentId(), FileStatus.NORMAL.getCode());
-            if (targetFolder == null || !Objects.equals(targetFolder.getFileType(), FileType.FOLDER.getCode())) {
+            if (targetFolder == null || !Objects.equals(targetFolder.getFileType(), FileType.FOLDER.getCode())
+                    || !targetFolder.getUserId().equals(userId)) {
                 throw new BusinessException("Target folder not found");
             }
+            targetPath = subtreePrefix(targetFolder);
+            // 不能移动到自身或自己的子孙文件夹下
+            if (targetPath.startsWith(subtreePrefix(file))) {
+                throw new BusinessException("Cannot move a folder into itself or its subfolder");
+            }
         }
 
         String lockKey = Constant.FILE_LOCK_PREFIX + userId + ":" + request.getTargetParentId() + ":" + file.getFileName();
@@ -439,15 +665,30 @@ public class FileService {
                 throw new BusinessException("A file with the same name already exists in the target folder");
             }
 
-            fileMapper.updateParentId(request.getFileId(), request.getTargetParentId());
+            fileMapper.updateParentId(request.getFileId(), request.getTargetParentId(), targetPath);
+            long movedSize = file.getFileSize();
+            long movedCount = 1;
+            if (Objects.equals(file.getFileType(), FileType.FOLDER.getCode())) {
+                FolderStats stats = fileMapper.sumSubtreeStats(userId, subtreePrefix(file));
+                movedSize = stats.getFolderSize();
+                movedCount += stats.getItemCount();
+                // 子孙的路径前缀一并替换
+                fileMapper.updateSubtreePath(userId, subtreePrefix(file), targetPath + file.getFileId() + "/");
+            }
+            // 新旧位置共同的祖先增减相抵
+            folderStatsTracker.record(userId, file.getPath(), -movedSize, -movedCount);
+            folderStatsTracker.record(userId, targetPath, movedSize, movedCount);
+            listingCache.invalidate(userId, file.getParentId());
+            listingCache.invalidate(userId, request.getTargetParentId());
             file.setParentId(request.getTargetParentId());
+            file.setPath(targetPath);
 
             log.info("文件移动成功: fileId={}, targetParentId={}", request.getFileId(), request.getTargetParentId());
             return convertToFileResponse(file);
         }
     }
 
-    public File downloadFile(Long fileId) {
+    public FileData downloadFile(Long fileId) {
         Long userId = StpUtil.getLoginIdAsLong();
 
         FileEntity file = fileMapper.selectById(fileId, FileStatus.NORMAL.getCode());
@@ -468,13 +709,14 @@ public class FileService {
             throw new BusinessException("File storage info not found");
         }
 
-        File physicalFile = new File(basePath, storage.getStoragePath());
+        File physicalFile = storageVolumes.resolveFile(storage);
         if (!physicalFile.exists()) {
             throw new BusinessException("Physical file not found");
         }
 
         log.info("文件下载: userId={}, fileName={}", userId, file.getFileName());
-        return physicalFile;
+        storageAccessTracker.record(storage.getStorageId());
+        return new FileData(physicalFile, file.getFileName(), storage);
     }
 
     public FileData getFileForPreview(Long fileId) {
@@ -498,13 +740,14 @@ public class FileService {
             throw new BusinessException("File storage info not found");
         }
 
-        File physicalFile = new File(basePath, storage.getStoragePath());
+        File physicalFile = storageVolumes.resolveFile(storage);
         if (!physicalFile.exists()) {
             throw new BusinessException("Physical file not found");
         }
 
         log.info("文件预览: userId={}, fileName={}", userId, file.getFileName());
-        return new FileData(physicalFile, file.getFileName());
+        storageAccessTracker.record(storage.getStorageId());
+        return new FileData(physicalFile, file.getFileName(), storage);
     }
 
     public FileResponse getFileInfo(Long fileId) {
@@ -541,73 +784,56 @@ public class FileService {
 
         String lockKey = Constant.FOLDER_LOCK_PREFIX + userId + ":" + folderId;
         try (DistributedLock _ = new DistributedLock(redisTemplate, lockKey, Constant.LOCK_LEASE_TIME).lock()) {
-            if (isFolderNotEmptyRecursive(userId, folderId)) {
+            String prefix = subtreePrefix(folder);
+            if (fileMapper.existsInSubtree(userId, prefix, FileType.FILE.getCode(), FileStatus.NORMAL.getCode())) {
                 throw new BusinessException("Can only delete empty folders or folders containing only empty folders");
             }
 
-            deleteEmptyFoldersRecursive(userId, folderId);
+            int deleted = fileMapper.deleteSubtree(userId, prefix, FileType.FOLDER.getCode(), FileStatus.NORMAL.getCode());
+            fileMapper.deleteById(folderId);
+            folderStatsTracker.record(userId, folder.getPath(), 0, -deleted - 1);
+            listingCache.invalidate(userId, folder.getParentId());
 
             log.info("文件夹删除成功: folderId={}, folderName={}", folderId, folder.getFileName());
         }
     }
 
-    private boolean isFolderNotEmptyRecursive(Long userId, Long folderId) {
-        List<FileEntity> children = fileMapper.selectByUserIdAndParentId(userId, folderId, FileStatus.NORMAL.getCode());
-        if (children.isEmpty()) {
-            return false;
+    /**
+     * 物化路径：path为祖先文件夹id依次以/分隔，根目录下为"/"，子项的path为父文件夹的path + 父文件夹id + "/"
+     */
+    private String childPath(Long userId, Long parentId) {
+        if (parentId == null || parentId == 0) {
+            return ROOT_PATH;
         }
-
-        for (FileEntity child : children) {
-            if (Objects.equals(child.getFileType(), FileType.FILE.getCode())) {
-                // 包含文件，不是空文件夹
-                return true;
-            } else if (Objects.equals(child.getFileType(), FileType.FOLDER.getCode())) {
-                // 递归检查子文件夹
-                if (isFolderNotEmptyRecursive(userId, child.getFileId())) {
-                    return true;
-                }
-            }
+        // 只能建在自己的、正常状态的文件夹下，否则统计增量会记到他人或回收站中的祖先上
+        FileEntity parent = fileMapper.selectById(parentId, FileStatus.NORMAL.getCode());
+        if (parent == null || !Objects.equals(parent.getFileType(), FileType.FOLDER.getCode())
+                || !parent.getUserId().equals(userId)) {
+            throw new BusinessException("Parent folder not found");
         }
-
-        return false;
+        return subtreePrefix(parent);
     }
 
-    private void deleteEmptyFoldersRecursive(Long userId, Long folderId) {
-        List<FileEntity> children = fileMapper.selectByUserIdAndParentId(userId, folderId, FileStatus.NORMAL.getCode());
-        
-        // 先递归删除子文件夹
-        for (FileEntity child : children) {
-            if (Objects.equals(child.getFileType(), FileType.FOLDER.getCode())) {
-                deleteEmptyFoldersRecursive(userId, child.getFileId());
-            }
-        }
-
-        // 删除当前文件夹
-        fileMapper.deleteById(folderId);
-    }
-
-    private File saveToTempFile(MultipartFile multipartFile) throws IOException {
-        Path tempDir = Paths.get(tempPath);
-        if (!Files.exists(tempDir)) {
-            Files.createDirectories(tempDir);
-        }
-
-        String tempFileName = System.currentTimeMillis() + "_" + multipartFile.getOriginalFilename();
-        File tempFile = tempDir.resolve(tempFileName).toFile();
-        multipartFile.transferTo(tempFile);
-        return tempFile;
+    /**
+     * 子孙的path都以此为前缀
+     */
+    private static String subtreePrefix(FileEntity folder) {
+        return folder.getPath() + folder.getFileId() + "/";
     }
 
     private FileEntity createFileRecord(Long userId, Long parentId, Long storageId, String fileName, Integer fileType, Long fileSize) {
         FileEntity file = new FileEntity();
         file.setUserId(userId);
         file.setParentId(parentId);
+        file.setPath(childPath(userId, parentId));
         file.setStorageId(storageId);
         file.setFileName(fileName);
         file.setFileType(fileType);
         file.setFileSize(fileSize);
         file.setStatus(FileStatus.NORMAL.getCode());
         fileMapper.insert(file);
+        folderStatsTracker.record(userId, file.getPath(), fileSize, 1);
+        listingCache.invalidate(userId, parentId);
         return file;
     }
 
@@ -625,90 +851,263 @@ public class FileService {
         
         response.setSkipUpload(false);
         response.setStorageId(null);
-        List<Integer> uploadedChunks = fileChunkMapper.selectUploadedChunkNumbers(identifier);
-        response.setUploadedChunks(uploadedChunks);
+        response.setUploadedChunks(uploadSessionService.listReceivedChunks(UploadSessionService.uploadKey(userId, identifier)));
         
         return response;
     }
 
-    @Transactional
-    public void uploadChunk(MultipartFile file, String identifier, Integer chunkNumber, 
-            Integer totalChunks, Long totalSize, Long parentId) throws IOException {
+    /**
+     * 分片直接写入预分配的目标文件的对应偏移处，合并时只需rename，不再二次拷贝
+     *
+     * @param chunkSize 客户端的标准分片大小，可为空；为空时由非末尾分片自身大小或末尾分片倒推偏移
+     * @param chunkMd5 分片内容的MD5，可为空；不一致时立即拒绝该分片
+     */
+    public void uploadChunk(MultipartFile file, String identifier, Integer chunkNumber,
+            Integer totalChunks, Long totalSize, Long chunkSize, String chunkMd5, Long parentId) throws IOException {
         Long userId = StpUtil.getLoginIdAsLong();
         
-        FileChunk existingChunk = fileChunkMapper.selectByIdentifierAndChunkNumber(identifier, chunkNumber);
-        if (existingChunk != null) {
+        if (chunkNumber < 1 || chunkNumber > totalChunks) {
+            throw new BusinessException("Invalid chunk number");
+        }
+        // 配额已在创建会话时预占，这里只确认会话有效
+        String uploadKey = UploadSessionService.uploadKey(userId, identifier);
+        UploadSessionService.ChunkState state = uploadSessionService.checkChunk(userId, uploadKey, chunkNumber, totalSize);
+        if (state.received()) {
             return;
         }
-        
-        UserService.UserQuota quota = userService.getUserQuota(userId);
-        if (quota.getUsedQuota() + totalSize > quota.getTotalQuota()) {
-            throw new BusinessException("Insufficient storage space");
+
+        long length = file.getSize();
+        long offset;
+        if (chunkSize != null && chunkSize > 0) {
+            offset = (chunkNumber - 1) * chunkSize;
+        } else if (chunkNumber < totalChunks) {
+            offset = (chunkNumber - 1) * length;
+        } else {
+            offset = totalSize - length;
+        }
+        if (offset < 0 || offset + length > totalSize) {
+            throw new BusinessException("Chunk exceeds the declared file size");
+        }
+
+        Path partPath = uploadSessionService.partPath(uploadKey, state.volumeId());
+        Files.createDirectories(partPath.getParent());
+        MessageDigest chunkDigest = DigestUtils.getMd5Digest();
+        // 计入所在卷的并发写入，供新文件选卷时参考
+        try (StorageVolumes.Placement _ = storageVolumes.acquire(state.volumeId());
+             FileChannel channel = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             ReadableByteChannel source = Channels.newChannel(file.getInputStream())) {
+            // 只扩不缩，并发的首个分片重复预分配也不会截断已写入的数据
+            if (channel.size() < totalSize) {
+                try (RandomAccessFile raf = new RandomAccessFile(partPath.toFile(), "rw")) {
+                    raf.setLength(totalSize);
+                }
+            }
+            // 边写边算分片摘要，数据只过一遍
+            ByteBuffer buffer = ByteBuffer.allocate(UPLOAD_BUFFER_SIZE);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                if (source.read(buffer) < 0) {
+                    throw new BusinessException("Chunk data is incomplete");
+                }
+                buffer.flip();
+                chunkDigest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        }
+        // 校验失败的分片不登记，客户端重传时会覆盖同一偏移
+        if (chunkMd5 != null && !chunkMd5.isBlank()
+                && !chunkMd5.equalsIgnoreCase(Hex.encodeHexString(chunkDigest.digest()))) {
+            throw new BusinessException("Chunk checksum mismatch");
+        }
+        // 并发重复上传同一分片时只有首个登记者推进增量摘要
+        if (uploadSessionService.markChunkReceived(uploadKey, chunkNumber)) {
+            uploadDigestTracker.onChunkWritten(uploadKey, partPath, offset, length);
         }
         
-        Path chunkDir = Paths.get(tempPath, "chunks", identifier);
-        Files.createDirectories(chunkDir);
-        
-        String chunkPath = chunkDir.resolve(String.valueOf(chunkNumber)).toString();
-        file.transferTo(new File(chunkPath));
-        
-        FileChunk chunk = new FileChunk();
-        chunk.setFileIdentifier(identifier);
-        chunk.setChunkNumber(chunkNumber);
-        chunk.setChunkSize(file.getSize());
-        chunk.setTotalChunks(totalChunks);
-        chunk.setTotalSize(totalSize);
-        chunk.setStoragePath(chunkPath);
-        chunk.setUserId(userId);
-        fileChunkMapper.insert(chunk);
-        
-        log.info("Chunk uploaded: userId={}, identifier={}, chunkNumber={}", userId, identifier, chunkNumber);
+        log.info("Chunk uploaded: userId={}, identifier={}, chunkNumber={}, offset={}", userId, identifier, chunkNumber, offset);
     }
 
-    @Transactional
-    public FileResponse mergeFile(MergeFileRequest request) throws IOException {
-        Long userId = StpUtil.getLoginIdAsLong();
+    /**
+     * 请求线程上的快速校验，通过后再把合并交给后台任务
+     */
+    public void validateMerge(Long userId, MergeFileRequest request) {
+        FileEntity existFile = fileMapper.selectByUserIdAndParentIdAndFileName(userId, request.getParentId(), request.getFileName(), FileStatus.NORMAL.getCode());
+        if (existFile != null) {
+            throw new BusinessException("File already exists");
+        }
+
+        UploadSession session = uploadSessionService.getSession(userId, request.getIdentifier());
+        if (!Objects.equals(session.getTotalSize(), request.getTotalSize())) {
+            throw new BusinessException("Upload session does not match the file");
+        }
+
+        long uploadedCount = uploadSessionService.countReceivedChunks(UploadSessionService.uploadKey(userId, request.getIdentifier()));
+        if (uploadedCount != request.getTotalChunks()) {
+            throw new BusinessException("Not all chunks uploaded");
+        }
+    }
+
+    /**
+     * 在合并任务线程中执行，文件操作不占用数据库连接，事务只覆盖最后的storage/file写入
+     */
+    public FileResponse mergeFile(Long userId, MergeFileRequest request) throws IOException {
         String identifier = request.getIdentifier();
         String fileName = request.getFileName();
         Long parentId = request.getParentId();
-        
-        FileEntity existFile = fileMapper.selectByUserIdAndParentIdAndFileName(userId, parentId, fileName, FileStatus.NORMAL.getCode());
-        if (existFile != null) {
+
+        UploadSession session = uploadSessionService.getSession(userId, identifier);
+        String uploadKey = UploadSessionService.uploadKey(userId, identifier);
+        int volumeId = uploadSessionService.getVolumeId(uploadKey);
+        Path partPath = uploadSessionService.partPath(uploadKey, volumeId);
+        if (!Files.exists(partPath) || Files.size(partPath) != session.getTotalSize()) {
+            throw new BusinessException("Uploaded data is incomplete");
+        }
+        // 同名检查放在落位之前，冲突时分片文件原样保留
+        if (fileMapper.selectByUserIdAndParentIdAndFileName(userId, parentId, fileName, FileStatus.NORMAL.getCode()) != null) {
             throw new BusinessException("File already exists");
         }
-        
-        List<FileChunk> chunks = fileChunkMapper.selectByIdentifier(identifier);
-        if (chunks.size() != request.getTotalChunks()) {
-            throw new BusinessException("Not all chunks uploaded");
+        // 整文件校验可能读一遍大文件，放在MD5锁之外，锁的租期只需覆盖落位和落库
+        verifyMergedContent(identifier, uploadKey, partPath, session.getTotalSize());
+
+        String md5LockKey = Constant.UPLOAD_LOCK_PREFIX + identifier;
+        DistributedLock md5Lock = new DistributedLock(redisTemplate, md5LockKey, Constant.LOCK_LEASE_TIME);
+        if (!md5Lock.tryLock(MERGE_LOCK_RETRY_INTERVAL, MERGE_LOCK_RETRY_COUNT)) {
+            throw new BusinessException("File with the same content is being uploaded, please retry later");
         }
-        
-        chunks.sort((a, b) -> a.getChunkNumber() - b.getChunkNumber());
-        
-        String extension = Funcs.getExtension(fileName);
-        String storagePath = Funcs.generateStoragePath(identifier, extension);
-        Path targetPath = Paths.get(basePath, storagePath);
-        Files.createDirectories(targetPath.getParent());
-        
-        try (java.io.FileOutputStream fos = new java.io.FileOutputStream(targetPath.toFile())) {
-            for (FileChunk chunk : chunks) {
-                Files.copy(Paths.get(chunk.getStoragePath()), fos);
+        Path targetPath = null;
+        Path restorePath = null;
+        try {
+            // 等锁期间同一会话的另一次合并可能已经落位
+            if (!Files.exists(partPath)) {
+                throw new BusinessException("Uploaded data is incomplete");
+            }
+
+            // 合并期间其他上传可能已经落下了相同内容，此时直接引用
+            Storage existStorage = storageMapper.selectByMd5(identifier);
+            String storagePath = null;
+            StoredContent stored = null;
+            if (existStorage == null) {
+                storagePath = storageLayout.generatePath(identifier, Funcs.getExtension(fileName));
+                // 分片已按偏移写好，不压缩时合并只是一次rename
+                stored = storeContent(volumeId, partPath, fileName, session.getTotalSize(), storagePath);
+                targetPath = stored.targetPath();
+                if (stored.codec() == StorageCodec.NONE) {
+                    restorePath = partPath;
+                }
+            }
+
+            String newStoragePath = storagePath;
+            StoredContent storedContent = stored;
+            FileEntity file = transactionTemplate.execute(_ -> {
+                FileEntity existFile = fileMapper.selectByUserIdAndParentIdAndFileName(userId, parentId, fileName, FileStatus.NORMAL.getCode());
+                if (existFile != null) {
+                    throw new BusinessException("File already exists");
+                }
+
+                Storage storage = existStorage;
+                if (storage != null) {
+                    retainStorage(storage.getStorageId());
+                } else {
+                    storage = new Storage();
+                    storage.setStorageSize(session.getTotalSize());
+                    storage.setStoragePath(newStoragePath);
+                    storage.setVolumeId(volumeId);
+                    storedContent.applyTo(storage);
+                    storage.setMd5(identifier);
+                    storage.setRefCount(1);
+                    storageMapper.insert(storage);
+                }
+
+                FileEntity created = createFileRecord(userId, parentId, storage.getStorageId(), fileName, FileType.FILE.getCode(), session.getTotalSize());
+                uploadSessionService.complete(session);
+                return created;
+            });
+            targetPath = null;
+            uploadSessionService.remove(uploadKey);
+            // 秒传、打包或压缩存放时分片文件仍在，rename落位时已不存在
+            Files.deleteIfExists(partPath);
+
+            log.info("File merged: userId={}, fileName={}, identifier={}", userId, fileName, identifier);
+            return convertToFileResponse(file);
+        } finally {
+            // 落库失败时先撤回已移动的新文件再释放MD5锁；rename走的是分片文件时移回原处，分片位图仍然有效，可直接重新合并
+            try {
+                if (targetPath != null && restorePath != null) {
+                    Files.move(targetPath, restorePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } else if (targetPath != null) {
+                    Files.deleteIfExists(targetPath);
+                }
+            } finally {
+                md5Lock.unlock();
             }
         }
-        
-        Storage storage = new Storage();
-        storage.setStorageSize(request.getTotalSize());
-        storage.setStoragePath(storagePath);
-        storage.setMd5(identifier);
-        storage.setRefCount(1);
-        storageMapper.insert(storage);
-        
-        FileEntity file = createFileRecord(userId, parentId, storage.getStorageId(), fileName, FileType.FILE.getCode(), request.getTotalSize());
-        userService.incrementUsedQuota(userId, request.getTotalSize());
-        
-        cleanupChunks(identifier);
-        
-        log.info("File merged: userId={}, fileName={}, identifier={}", userId, fileName, identifier);
-        return convertToFileResponse(file);
+    }
+
+    /**
+     * 把暂存内容落到volumeId卷上：值得压缩的先压缩，落盘后不超过打包阈值的追加到打包文件，否则rename到storagePath
+     * source本身不删除，rename落位时已不存在
+     */
+    private StoredContent storeContent(int volumeId, Path source, String fileName, long size, String storagePath) throws IOException {
+        // 压缩结果放在卷的暂存目录，异常退出时残留的文件由上传清理任务回收
+        Path compressed = storageCompressor.accepts(fileName, size)
+                ? storageCompressor.compress(source, storageVolumes.stagingDir(volumeId).resolve(UUID.randomUUID() + ".gz"))
+                : null;
+        try {
+            Path content = compressed != null ? compressed : source;
+            StorageCodec codec = compressed != null ? StorageCodec.GZIP : StorageCodec.NONE;
+            long storedSize = compressed != null ? Files.size(compressed) : size;
+            if (packStore.accepts(storedSize)) {
+                // 小文件追加到打包文件，storage_path仅保留扩展名等信息
+                return new StoredContent(packStore.append(volumeId, Files.readAllBytes(content)), null, codec, storedSize);
+            }
+            Path targetPath = storageVolumes.root(volumeId).resolve(storagePath);
+            Files.createDirectories(targetPath.getParent());
+            Files.move(content, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // rename保留暂存文件最后写入的时间，刷新后对账任务的宽限期从落位时刻算起
+            Files.setLastModifiedTime(targetPath, FileTime.from(Instant.now()));
+            return new StoredContent(null, targetPath, codec, storedSize);
+        } finally {
+            if (compressed != null) {
+                Files.deleteIfExists(compressed);
+            }
+        }
+    }
+
+    /**
+     * @param targetPath 独立存放时rename后的路径，落库失败时需要撤回
+     */
+    private record StoredContent(PackStore.Location packed, Path targetPath, StorageCodec codec, long storedSize) {
+
+        void applyTo(Storage storage) {
+            if (packed != null) {
+                storage.setPackId(packed.packId());
+                storage.setPackOffset(packed.offset());
+            }
+            storage.setCodec(codec.getCode());
+            storage.setStoredSize(codec == StorageCodec.NONE ? null : storedSize);
+        }
+
+    }
+
+    /**
+     * 分片全部在本节点按序推进过摘要时直接取结果，否则顺序读一遍分片文件；与identifier不符则作废本次上传
+     */
+    private void verifyMergedContent(String identifier, String uploadKey, Path partPath, long totalSize) throws IOException {
+        String actualMd5 = uploadDigestTracker.finish(uploadKey, totalSize);
+        if (actualMd5 == null) {
+            actualMd5 = Funcs.calculateMd5(partPath.toFile());
+        }
+        if (!identifier.equalsIgnoreCase(actualMd5)) {
+            log.warn("Merged content mismatch: identifier={}, actualMd5={}", identifier, actualMd5);
+            Files.deleteIfExists(partPath);
+            uploadSessionService.remove(uploadKey);
+            throw new BusinessException("File content does not match its identifier, please upload again");
+        }
     }
 
     @Transactional
@@ -729,29 +1128,26 @@ public class FileService {
             throw new BusinessException("Storage not found");
         }
         
-        storageMapper.incrementRefCount(storageId);
+        retainStorage(storageId);
         
         FileEntity file = createFileRecord(userId, parentId, storageId, fileName, FileType.FILE.getCode(), request.getTotalSize());
-        userService.incrementUsedQuota(userId, request.getTotalSize());
+        userService.tryIncrementUsedQuota(userId, request.getTotalSize());
         
         log.info("Instant upload: userId={}, fileName={}, storageId={}", userId, fileName, storageId);
         return convertToFileResponse(file);
     }
 
-    public Long getStorageId(Long fileId) {
-        return fileMapper.selectStorageId(fileId);
+    /**
+     * 引用已有存储；清理任务可能已在行锁下删除了该孤立记录，此时更新行数为0，本次上传需重试
+     */
+    private void retainStorage(Long storageId) {
+        if (storageMapper.incrementRefCount(storageId) == 0) {
+            throw new BusinessException("Storage has been reclaimed, please retry");
+        }
     }
 
-    private void cleanupChunks(String identifier) {
-        List<FileChunk> chunks = fileChunkMapper.selectByIdentifier(identifier);
-        for (FileChunk chunk : chunks) {
-            try {
-                Files.deleteIfExists(Paths.get(chunk.getStoragePath()));
-            } catch (IOException e) {
-                log.warn("Failed to delete chunk: {}", chunk.getStoragePath());
-            }
-        }
-        fileChunkMapper.deleteByIdentifier(identifier);
+    public Long getStorageId(Long fileId) {
+        return fileMapper.selectStorageId(fileId);
     }
 
     private FileResponse convertToFileResponse(FileEntity file) {
@@ -760,8 +1156,13 @@ public class FileService {
         response.setParentId(file.getParentId());
         response.setFileName(file.getFileName());
         response.setFileType(file.getFileType());
-        response.setFileSize(file.getFileSize());
-        response.setFileSizeFormat(Funcs.formatFileSize(file.getFileSize()));
+        if (Objects.equals(file.getFileType(), FileType.FOLDER.getCode()) && file.getFolderSize() != null) {
+            response.setFileSize(file.getFolderSize());
+            response.setItemCount(file.getItemCount());
+        } else {
+            response.setFileSize(file.getFileSize());
+        }
+        response.setFileSizeFormat(Funcs.formatFileSize(response.getFileSize()));
         response.setStatus(file.getStatus());
         response.setCreatedTime(file.getCreatedTime());
         response.setUpdatedTime(file.getUpdatedTime());
@@ -781,15 +1182,12 @@ public class FileService {
         }
 
         List<Long> pathIds = new ArrayList<>();
-        pathIds.add(fileId);
-
-        Long parentId = file.getParentId();
-        while (parentId != null && parentId != 0) {
-            pathIds.add(0, parentId);
-            FileEntity parent = fileMapper.selectById(parentId, FileStatus.NORMAL.getCode());
-            if (parent == null) break;
-            parentId = parent.getParentId();
+        for (String segment : file.getPath().split("/")) {
+            if (!segment.isEmpty()) {
+                pathIds.add(Long.parseLong(segment));
+            }
         }
+        pathIds.add(fileId);
 
         return new FilePathResponse(fileId, pathIds);
     }
@@ -801,23 +1199,45 @@ public class FileService {
             throw new BusinessException("File already exists");
         }
 
-        UserService.UserQuota quota = userService.getUserQuota(userId);
         long fileSize = content.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
-        if (quota.getUsedQuota() + fileSize > quota.getTotalQuota()) {
-            throw new BusinessException("Insufficient storage space");
-        }
+        // 检查与扣减在Redis中一次完成，后续失败时随事务回滚撤销
+        userService.tryIncrementUsedQuota(userId, fileSize);
 
         String md5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(content);
+        // 与上传相同的MD5锁，持有到事务结束：存储清理在同一把锁下复核路径，不会删掉刚写入、尚未提交的文件
+        DistributedLock md5Lock = new DistributedLock(redisTemplate, Constant.UPLOAD_LOCK_PREFIX + md5, Constant.LOCK_LEASE_TIME);
+        if (!md5Lock.tryLock()) {
+            throw new BusinessException("File with the same content is being uploaded, please retry later");
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                md5Lock.unlock();
+            }
+        });
         Storage storage = storageMapper.selectByMd5(md5);
         
         if (storage == null) {
             String extension = Funcs.getExtension(fileName);
-            String storagePath = Funcs.generateStoragePath(md5, extension);
-            Path targetPath = Paths.get(basePath, storagePath);
-            
-            try {
-                Files.createDirectories(targetPath.getParent());
-                Files.writeString(targetPath, content, java.nio.charset.StandardCharsets.UTF_8);
+            String storagePath = storageLayout.generatePath(md5, extension);
+            int volumeId;
+            StoredContent stored;
+            try (StorageVolumes.Placement placement = storageVolumes.place(fileSize)) {
+                volumeId = placement.getVolumeId();
+                byte[] data = content.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                byte[] compressed = storageCompressor.accepts(fileName, fileSize) ? storageCompressor.compress(data) : null;
+                StorageCodec codec = compressed != null ? StorageCodec.GZIP : StorageCodec.NONE;
+                if (compressed != null) {
+                    data = compressed;
+                }
+                if (packStore.accepts(data.length)) {
+                    stored = new StoredContent(packStore.append(volumeId, data), null, codec, data.length);
+                } else {
+                    Path targetPath = placement.getRoot().resolve(storagePath);
+                    Files.createDirectories(targetPath.getParent());
+                    Files.write(targetPath, data);
+                    stored = new StoredContent(null, targetPath, codec, data.length);
+                }
             } catch (IOException e) {
                 throw new BusinessException("Failed to write file: " + e.getMessage());
             }
@@ -825,24 +1245,27 @@ public class FileService {
             storage = new Storage();
             storage.setStorageSize(fileSize);
             storage.setStoragePath(storagePath);
+            storage.setVolumeId(volumeId);
+            stored.applyTo(storage);
             storage.setMd5(md5);
             storage.setRefCount(1);
             storageMapper.insert(storage);
         } else {
-            storageMapper.incrementRefCount(storage.getStorageId());
+            retainStorage(storage.getStorageId());
         }
 
         FileEntity file = new FileEntity();
         file.setUserId(userId);
         file.setParentId(parentId);
+        file.setPath(childPath(userId, parentId));
         file.setStorageId(storage.getStorageId());
         file.setFileName(fileName);
         file.setFileType(FileType.FILE.getCode());
         file.setFileSize(fileSize);
         file.setStatus(FileStatus.NORMAL.getCode());
         fileMapper.insert(file);
-
-        userService.incrementUsedQuota(userId, fileSize);
+        folderStatsTracker.record(userId, file.getPath(), fileSize, 1);
+        listingCache.invalidate(userId, parentId);
 
         log.info("Text file created: userId={}, fileName={}, size={}", userId, fileName, fileSize);
         return convertToFileResponse(file);
@@ -872,7 +1295,7 @@ public class FileService {
             throw new BusinessException("File storage info not found");
         }
 
-        File physicalFile = new File(basePath, storage.getStoragePath());
+        File physicalFile = storageVolumes.resolveFile(storage);
         if (!physicalFile.exists()) {
             throw new BusinessException("Physical file not found");
         }
@@ -883,7 +1306,8 @@ public class FileService {
         }
 
         try {
-            return Files.readString(physicalFile.toPath(), java.nio.charset.StandardCharsets.UTF_8);
+            byte[] bytes = storageCompressor.readAllBytes(storage);
+            return java.nio.charset.StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
         } catch (IOException e) {
             throw new BusinessException("Failed to read file: " + e.getMessage());
         }
@@ -0,0 +1,122 @@
+package top.orosirian.orodisk.service;
+
+import cn.dev33.satoken.stp.StpUtil;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import top.orosirian.orodisk.model.request.MergeFileRequest;
+import top.orosirian.orodisk.model.response.FileResponse;
+import top.orosirian.orodisk.model.response.MergeJobResponse;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.enums.MergeJobStatus;
+import top.orosirian.orodisk.utils.exceptions.BusinessException;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片合并改为后台任务：请求线程只做校验并返回jobId，客户端轮询状态
+ * 任务跑在独立的有界I/O线程池上，排队满时直接拒绝，避免大文件合并拖垮其他接口
+ */
+@Slf4j
+@Service
+public class MergeJobService {
+
+    private final FileService fileService;
+    private final VectorQueueService vectorQueueService;
+    private final StringRedisTemplate redisTemplate;
+    private final ThreadPoolExecutor executor;
+
+    public MergeJobService(FileService fileService, VectorQueueService vectorQueueService, StringRedisTemplate redisTemplate,
+                           @Value("${disk.upload.merge-threads:4}") int mergeThreads,
+                           @Value("${disk.upload.merge-queue-capacity:64}") int queueCapacity) {
+        this.fileService = fileService;
+        this.vectorQueueService = vectorQueueService;
+        this.redisTemplate = redisTemplate;
+        this.executor = new ThreadPoolExecutor(mergeThreads, mergeThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("merge-", 0).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public MergeJobResponse submit(MergeFileRequest request) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        fileService.validateMerge(userId, request);
+
+        String jobId = UUID.randomUUID().toString().replace("-", "");
+        saveJob(jobId, userId, MergeJobStatus.PENDING, null, null);
+        try {
+            executor.execute(() -> runJob(jobId, userId, request));
+        } catch (RejectedExecutionException e) {
+            redisTemplate.delete(Constant.MERGE_JOB_PREFIX + jobId);
+            throw new BusinessException("Too many files are being merged, please retry later");
+        }
+
+        log.info("Merge job submitted: userId={}, jobId={}, identifier={}", userId, jobId, request.getIdentifier());
+        MergeJobResponse response = new MergeJobResponse();
+        response.setJobId(jobId);
+        response.setStatus(MergeJobStatus.PENDING.getCode());
+        return response;
+    }
+
+    public MergeJobResponse getJob(String jobId) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        Map<Object, Object> job = redisTemplate.opsForHash().entries(Constant.MERGE_JOB_PREFIX + jobId);
+        if (job.isEmpty() || !String.valueOf(userId).equals(job.get("userId"))) {
+            throw new BusinessException("Merge job not found");
+        }
+
+        MergeJobResponse response = new MergeJobResponse();
+        response.setJobId(jobId);
+        response.setStatus(Integer.valueOf((String) job.get("status")));
+        response.setMessage((String) job.get("message"));
+        if (job.get("fileId") != null) {
+            response.setFile(fileService.getFileInfo(Long.valueOf((String) job.get("fileId"))));
+        }
+        return response;
+    }
+
+    private void runJob(String jobId, Long userId, MergeFileRequest request) {
+        saveJob(jobId, userId, MergeJobStatus.RUNNING, null, null);
+        try {
+            FileResponse file = fileService.mergeFile(userId, request);
+            saveJob(jobId, userId, MergeJobStatus.SUCCESS, file.getFileId(), null);
+            vectorQueueService.sendVectorizeMessage(fileService.getStorageId(file.getFileId()));
+        } catch (BusinessException e) {
+            log.warn("Merge job failed: jobId={}, reason={}", jobId, e.getMessage());
+            saveJob(jobId, userId, MergeJobStatus.FAILED, null, e.getMessage());
+        } catch (Exception e) {
+            log.error("Merge job error: jobId={}", jobId, e);
+            saveJob(jobId, userId, MergeJobStatus.FAILED, null, "Merge failed, please retry later");
+        }
+    }
+
+    private void saveJob(String jobId, Long userId, MergeJobStatus status, Long fileId, String message) {
+        String key = Constant.MERGE_JOB_PREFIX + jobId;
+        Map<String, String> fields = new HashMap<>();
+        fields.put("userId", String.valueOf(userId));
+        fields.put("status", String.valueOf(status.getCode()));
+        if (fileId != null) {
+            fields.put("fileId", String.valueOf(fileId));
+        }
+        if (message != null) {
+            fields.put("message", message);
+        }
+        redisTemplate.opsForHash().putAll(key, fields);
+        redisTemplate.expire(key, Duration.ofSeconds(Constant.MERGE_JOB_TTL));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
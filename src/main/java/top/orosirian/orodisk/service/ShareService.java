@@ -1,6 +1,7 @@
 package top.orosirian.orodisk.service;
 
 import cn.dev33.satoken.stp.StpUtil;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,6 +10,7 @@ import org.springframework.transaction.annotation.Transactional;
 import top.orosirian.orodisk.mappers.FileMapper;
 import top.orosirian.orodisk.mappers.FileShareMapper;
 import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.model.dto.FileData;
 import top.orosirian.orodisk.model.entity.FileEntity;
 import top.orosirian.orodisk.model.entity.FileShare;
 import top.orosirian.orodisk.model.entity.Storage;
@@ -16,17 +18,15 @@ import top.orosirian.orodisk.model.request.CreateShareRequest;
 import top.orosirian.orodisk.model.request.VerifyShareRequest;
 import top.orosirian.orodisk.model.response.ShareInfoResponse;
 import top.orosirian.orodisk.model.response.ShareResponse;
+import top.orosirian.orodisk.utils.FileStreamer;
 import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.StorageAccessTracker;
+import top.orosirian.orodisk.utils.StorageVolumes;
 import top.orosirian.orodisk.utils.exceptions.BusinessException;
 import top.orosirian.orodisk.utils.enums.FileStatus;
 import top.orosirian.orodisk.utils.enums.FileType;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Random;
@@ -38,17 +38,21 @@ public class ShareService {
     @Value("${disk.share.base-url:http://www.orosirian.top/s/}")
     private String shareBaseUrl;
 
-    @Value("${disk.storage.base-path}")
-    private String basePath;
-
     private final FileShareMapper fileShareMapper;
     private final FileMapper fileMapper;
     private final StorageMapper storageMapper;
+    private final FileStreamer fileStreamer;
+    private final StorageVolumes storageVolumes;
+    private final StorageAccessTracker storageAccessTracker;
 
-    public ShareService(FileShareMapper fileShareMapper, FileMapper fileMapper, StorageMapper storageMapper) {
+    public ShareService(FileShareMapper fileShareMapper, FileMapper fileMapper, StorageMapper storageMapper, FileStreamer fileStreamer,
+                        StorageVolumes storageVolumes, StorageAccessTracker storageAccessTracker) {
         this.fileShareMapper = fileShareMapper;
         this.fileMapper = fileMapper;
         this.storageMapper = storageMapper;
+        this.fileStreamer = fileStreamer;
+        this.storageVolumes = storageVolumes;
+        this.storageAccessTracker = storageAccessTracker;
     }
 
     @Transactional
@@ -129,7 +133,7 @@ public class ShareService {
         return share.getPassword().equals(request.getPassword());
     }
 
-    public void downloadShare(String shareCode, String password, HttpServletResponse response) throws Exception {
+    public void downloadShare(String shareCode, String password, HttpServletRequest request, HttpServletResponse response) throws Exception {
         FileShare share = fileShareMapper.selectByShareCode(shareCode);
         if (share == null) {
             throw new BusinessException("Share not found");
@@ -157,32 +161,23 @@ public class ShareService {
             throw new BusinessException("Storage not found");
         }
 
-        File physicalFile = new File(basePath, storage.getStoragePath());
+        File physicalFile = storageVolumes.resolveFile(storage);
         if (!physicalFile.exists()) {
             throw new BusinessException("Physical file not found");
         }
 
-        String contentType = getContentType(file.getFileName());
-        response.setContentType(contentType);
-        response.setHeader("Content-Disposition", "attachment; filename=" +
-                URLEncoder.encode(file.getFileName(), StandardCharsets.UTF_8));
-        response.setHeader("Content-Length", String.valueOf(physicalFile.length()));
-
-        try (InputStream is = new FileInputStream(physicalFile);
-             OutputStream os = response.getOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-            }
-            os.flush();
+        storageAccessTracker.record(storage.getStorageId());
+        FileData fileData = new FileData(physicalFile, file.getFileName(), storage);
+        if (!fileStreamer.stream(request, response, fileData, getContentType(file.getFileName()), true, true)) {
+            // 304/416不计入下载次数
+            return;
         }
 
         fileShareMapper.incrementDownloads(share.getShareId());
         log.info("Share downloaded: shareCode={}, fileId={}", shareCode, file.getFileId());
     }
 
-    public void previewShare(String shareCode, String password, HttpServletResponse response) throws Exception {
+    public void previewShare(String shareCode, String password, HttpServletRequest request, HttpServletResponse response) throws Exception {
         FileShare share = fileShareMapper.selectByShareCode(shareCode);
         if (share == null) {
             throw new BusinessException("Share not found");
@@ -206,26 +201,14 @@ public class ShareService {
             throw new BusinessException("Storage not found");
         }
 
-        File physicalFile = new File(basePath, storage.getStoragePath());
+        File physicalFile = storageVolumes.resolveFile(storage);
         if (!physicalFile.exists()) {
             throw new BusinessException("Physical file not found");
         }
 
-        String contentType = getContentType(file.getFileName());
-        response.setContentType(contentType);
-        response.setHeader("Content-Disposition", "inline; filename=" +
-                URLEncoder.encode(file.getFileName(), StandardCharsets.UTF_8));
-        response.setHeader("Content-Length", String.valueOf(physicalFile.length()));
-
-        try (InputStream is = new FileInputStream(physicalFile);
-             OutputStream os = response.getOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-            }
-            os.flush();
-        }
+        storageAccessTracker.record(storage.getStorageId());
+        FileData fileData = new FileData(physicalFile, file.getFileName(), storage);
+        fileStreamer.stream(request, response, fileData, getContentType(file.getFileName()), false, true);
     }
 
     public List<ShareResponse> listMyShares() {
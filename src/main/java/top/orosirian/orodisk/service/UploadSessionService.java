@@ -0,0 +1,370 @@
+package top.orosirian.orodisk.service;
+
+import cn.dev33.satoken.stp.StpUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.mappers.UploadSessionMapper;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.model.entity.UploadSession;
+import top.orosirian.orodisk.model.request.UploadSessionRequest;
+import top.orosirian.orodisk.model.response.CheckFileResponse;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.UploadDigestTracker;
+import top.orosirian.orodisk.utils.exceptions.BusinessException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * 分片上传会话
+ * 会话创建时在MySQL中原子预占totalSize的配额，合并时转为已用，取消或过期时释放，分片上传过程中不再查询配额
+ * 已收到的分片记在Redis位图里（第n个分片对应第n-1位），会话元数据放在同名hash中，两者同一TTL
+ * 位图、hash、分片文件和增量摘要都按用户加内容标识隔离（见uploadKey），相同内容只在合并落库时按MD5去重
+ * 分片文件所在的存储卷在会话创建时选定并记在hash中，合并时在同一卷内rename
+ * 流式上传的预占同样记为会话（标识带stream-前缀，没有Redis会话），进程中断时由清理任务按过期会话释放
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+    private static final String USER_FIELD_PREFIX = "user:";
+    private static final String VOLUME_FIELD = "volume";
+    private static final String STREAM_IDENTIFIER_PREFIX = "stream-";
+
+    private final StringRedisTemplate redisTemplate;
+    private final UploadSessionMapper uploadSessionMapper;
+    private final StorageMapper storageMapper;
+    private final UserService userService;
+    private final UploadDigestTracker uploadDigestTracker;
+    private final StorageVolumes storageVolumes;
+
+    public UploadSessionService(StringRedisTemplate redisTemplate, UploadSessionMapper uploadSessionMapper,
+                                StorageMapper storageMapper, UserService userService, UploadDigestTracker uploadDigestTracker,
+                                StorageVolumes storageVolumes) {
+        this.redisTemplate = redisTemplate;
+        this.uploadSessionMapper = uploadSessionMapper;
+        this.storageMapper = storageMapper;
+        this.userService = userService;
+        this.uploadDigestTracker = uploadDigestTracker;
+        this.storageVolumes = storageVolumes;
+    }
+
+    /**
+     * 创建或恢复上传会话，内容已存在时直接提示秒传
+     */
+    @Transactional
+    public CheckFileResponse start(UploadSessionRequest request) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        String identifier = request.getIdentifier();
+        if (request.getTotalSize() == null || request.getTotalSize() <= 0
+                || request.getTotalChunks() == null || request.getTotalChunks() <= 0) {
+            throw new BusinessException("Invalid upload session");
+        }
+
+        CheckFileResponse response = new CheckFileResponse();
+        UploadSession session = uploadSessionMapper.selectByUserIdAndIdentifier(userId, identifier);
+        Storage existingStorage = storageMapper.selectByMd5(identifier);
+        if (existingStorage != null) {
+            // 相同内容已由其他会话完成，遗留的预占直接释放
+            if (session != null && uploadSessionMapper.deleteById(session.getSessionId()) > 0) {
+                userService.releaseQuota(userId, session.getTotalSize());
+            }
+            response.setSkipUpload(true);
+            response.setStorageId(existingStorage.getStorageId());
+            response.setUploadedChunks(new ArrayList<>());
+            return response;
+        }
+
+        if (session == null) {
+            userService.reserveQuota(userId, request.getTotalSize());
+            session = new UploadSession();
+            session.setUserId(userId);
+            session.setFileIdentifier(identifier);
+            session.setFileName(request.getFileName());
+            session.setParentId(request.getParentId() == null ? 0L : request.getParentId());
+            session.setTotalSize(request.getTotalSize());
+            session.setTotalChunks(request.getTotalChunks());
+            uploadSessionMapper.insert(session);
+            log.info("Upload session started: userId={}, identifier={}, totalSize={}", userId, identifier, request.getTotalSize());
+        } else if (!Objects.equals(session.getTotalSize(), request.getTotalSize())
+                || !Objects.equals(session.getTotalChunks(), request.getTotalChunks())) {
+            throw new BusinessException("Upload session does not match the file");
+        }
+
+        String uploadKey = uploadKey(userId, identifier);
+        attach(userId, uploadKey, session.getTotalChunks(), session.getTotalSize());
+        response.setSkipUpload(false);
+        response.setStorageId(null);
+        response.setUploadedChunks(listReceivedChunks(uploadKey));
+        return response;
+    }
+
+    /**
+     * 用户主动取消：释放预占并删除已写入的数据
+     */
+    @Transactional
+    public void abort(String identifier) throws IOException {
+        Long userId = StpUtil.getLoginIdAsLong();
+        UploadSession session = uploadSessionMapper.selectByUserIdAndIdentifier(userId, identifier);
+        if (session == null) {
+            throw new BusinessException("Upload session not found");
+        }
+        release(session);
+        log.info("Upload session aborted: userId={}, identifier={}", userId, identifier);
+    }
+
+    /**
+     * 会话过期时由清理任务调用
+     */
+    @Transactional
+    public void expire(UploadSession session) throws IOException {
+        release(session);
+        log.info("Upload session expired: userId={}, identifier={}", session.getUserId(), session.getFileIdentifier());
+    }
+
+    /**
+     * 流式上传预占配额并记录会话，标识不是内容MD5，不会与分片会话冲突
+     */
+    @Transactional
+    public UploadSession reserveStream(Long userId, String fileName, Long parentId, long size) {
+        userService.reserveQuota(userId, size);
+        UploadSession session = new UploadSession();
+        session.setUserId(userId);
+        session.setFileIdentifier(STREAM_IDENTIFIER_PREFIX + UUID.randomUUID().toString().replace("-", ""));
+        session.setFileName(fileName);
+        session.setParentId(parentId == null ? 0L : parentId);
+        session.setTotalSize(size);
+        session.setTotalChunks(0);
+        uploadSessionMapper.insert(session);
+        return session;
+    }
+
+    /**
+     * 实际大小小于预占时退回多出的部分
+     */
+    @Transactional
+    public void shrinkStream(UploadSession session, long size) {
+        if (uploadSessionMapper.updateTotalSize(session.getSessionId(), session.getTotalSize(), size) == 0) {
+            throw new BusinessException("Upload session not found or expired");
+        }
+        userService.releaseQuota(session.getUserId(), session.getTotalSize() - size);
+        session.setTotalSize(size);
+    }
+
+    /**
+     * 流式上传失败时释放预占；已被清理任务释放的会话不再重复释放
+     */
+    @Transactional
+    public void cancelStream(UploadSession session) {
+        if (uploadSessionMapper.deleteById(session.getSessionId()) > 0) {
+            userService.releaseQuota(session.getUserId(), session.getTotalSize());
+        }
+    }
+
+    public UploadSession getSession(Long userId, String identifier) {
+        UploadSession session = uploadSessionMapper.selectByUserIdAndIdentifier(userId, identifier);
+        if (session == null) {
+            throw new BusinessException("Upload session not found or expired");
+        }
+        return session;
+    }
+
+    /**
+     * 合并成功时在同一事务中把预占转为已用
+     */
+    public void complete(UploadSession session) {
+        if (uploadSessionMapper.deleteById(session.getSessionId()) == 0) {
+            throw new BusinessException("Upload session not found or expired");
+        }
+        userService.commitReservedQuota(session.getUserId(), session.getTotalSize());
+    }
+
+    /**
+     * 一次流水线同时确认会话归属、文件大小、分片文件所在的卷以及分片是否已收到
+     */
+    public ChunkState checkChunk(Long userId, String uploadKey, int chunkNumber, long totalSize) {
+        String sessionKey = sessionKey(uploadKey);
+        String chunksKey = chunksKey(uploadKey);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hExists(sessionKey, USER_FIELD_PREFIX + userId);
+            conn.hGet(sessionKey, "totalSize");
+            conn.hGet(sessionKey, VOLUME_FIELD);
+            conn.getBit(chunksKey, chunkNumber - 1);
+            return null;
+        });
+        if (!Boolean.TRUE.equals(results.get(0))) {
+            throw new BusinessException("Upload session not found or expired");
+        }
+        if (!String.valueOf(totalSize).equals(results.get(1))) {
+            throw new BusinessException("Upload session does not match the file");
+        }
+        return new ChunkState(Boolean.TRUE.equals(results.get(3)), parseVolumeId(results.get(2)));
+    }
+
+    /**
+     * 分片文件所在的卷
+     */
+    public int getVolumeId(String uploadKey) {
+        return parseVolumeId(redisTemplate.opsForHash().get(sessionKey(uploadKey), VOLUME_FIELD));
+    }
+
+    /**
+     * @return 该分片此前未登记时返回true
+     */
+    public boolean markChunkReceived(String uploadKey, int chunkNumber) {
+        String chunksKey = chunksKey(uploadKey);
+        String sessionKey = sessionKey(uploadKey);
+        long ttl = Constant.UPLOAD_SESSION_TTL;
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.setBit(chunksKey, chunkNumber - 1, true);
+            conn.expire(chunksKey, ttl);
+            conn.expire(sessionKey, ttl);
+            return null;
+        });
+        return !Boolean.TRUE.equals(results.getFirst());
+    }
+
+    public List<Integer> listReceivedChunks(String uploadKey) {
+        byte[] bitmap = redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(chunksKey(uploadKey).getBytes(StandardCharsets.UTF_8)));
+        List<Integer> chunks = new ArrayList<>();
+        if (bitmap == null) {
+            return chunks;
+        }
+        for (int i = 0; i < bitmap.length; i++) {
+            int bits = bitmap[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                // Redis位图按字节高位在前
+                if ((bits & (0x80 >>> bit)) != 0) {
+                    chunks.add(i * 8 + bit + 1);
+                }
+            }
+        }
+        return chunks;
+    }
+
+    public long countReceivedChunks(String uploadKey) {
+        Long count = redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.stringCommands().bitCount(chunksKey(uploadKey).getBytes(StandardCharsets.UTF_8)));
+        return count == null ? 0 : count;
+    }
+
+    public boolean exists(String uploadKey) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(sessionKey(uploadKey)))
+                || Boolean.TRUE.equals(redisTemplate.hasKey(chunksKey(uploadKey)));
+    }
+
+    public boolean isAttached(Long userId, String identifier) {
+        return redisTemplate.opsForHash().hasKey(sessionKey(uploadKey(userId, identifier)), USER_FIELD_PREFIX + userId);
+    }
+
+    /**
+     * 只删除该用户自己的分片状态，其他用户上传相同内容的会话不受影响
+     */
+    public void remove(String uploadKey) {
+        redisTemplate.delete(List.of(chunksKey(uploadKey), sessionKey(uploadKey)));
+    }
+
+    /**
+     * 分片文件名即uploadKey，清理任务据此找回对应的会话
+     */
+    public Path partPath(String uploadKey, int volumeId) {
+        return partDir(volumeId).resolve(uploadKey + ".part");
+    }
+
+    public Path partDir(int volumeId) {
+        return storageVolumes.stagingDir(volumeId).resolve("chunks");
+    }
+
+    /**
+     * 同一用户上传同一内容共用一份分片状态
+     */
+    public static String uploadKey(Long userId, String identifier) {
+        return userId + "-" + identifier;
+    }
+
+    private void attach(Long userId, String uploadKey, int totalChunks, long totalSize) {
+        String sessionKey = sessionKey(uploadKey);
+        String chunksKey = chunksKey(uploadKey);
+        long ttl = Constant.UPLOAD_SESSION_TTL;
+        // 续传沿用已选定的卷
+        String volumeId = null;
+        if (!redisTemplate.opsForHash().hasKey(sessionKey, VOLUME_FIELD)) {
+            try (StorageVolumes.Placement placement = storageVolumes.place(totalSize)) {
+                volumeId = String.valueOf(placement.getVolumeId());
+            }
+        }
+        String newVolumeId = volumeId;
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(sessionKey, Map.of(
+                    USER_FIELD_PREFIX + userId, "1",
+                    "totalChunks", String.valueOf(totalChunks),
+                    "totalSize", String.valueOf(totalSize)));
+            if (newVolumeId != null) {
+                conn.hSetNX(sessionKey, VOLUME_FIELD, newVolumeId);
+            }
+            conn.expire(sessionKey, ttl);
+            conn.expire(chunksKey, ttl);
+            return null;
+        });
+    }
+
+    private void release(UploadSession session) throws IOException {
+        // 只有真正删除了会话的一方释放预占，避免与合并或其他清理重复释放
+        if (uploadSessionMapper.deleteById(session.getSessionId()) == 0) {
+            return;
+        }
+        userService.releaseQuota(session.getUserId(), session.getTotalSize());
+
+        String identifier = session.getFileIdentifier();
+        if (identifier.startsWith(STREAM_IDENTIFIER_PREFIX)) {
+            return;
+        }
+        String uploadKey = uploadKey(session.getUserId(), identifier);
+        remove(uploadKey);
+        uploadDigestTracker.discard(uploadKey);
+        // Redis会话可能已过期，无法确定分片文件所在的卷
+        for (StorageVolumes.Volume volume : storageVolumes.all()) {
+            Files.deleteIfExists(partPath(uploadKey, volume.getId()));
+        }
+    }
+
+    /**
+     * 引入多存储卷之前创建的会话没有记录卷，分片文件都在0号卷上
+     */
+    private int parseVolumeId(Object volume) {
+        return volume == null ? StorageVolumes.DEFAULT_VOLUME : Integer.parseInt((String) volume);
+    }
+
+    private String chunksKey(String uploadKey) {
+        return Constant.UPLOAD_CHUNKS_PREFIX + uploadKey;
+    }
+
+    private String sessionKey(String uploadKey) {
+        return Constant.UPLOAD_SESSION_PREFIX + uploadKey;
+    }
+
+    /**
+     * @param received 该分片此前是否已登记
+     * @param volumeId 分片文件所在的卷
+     */
+    public record ChunkState(boolean received, int volumeId) {
+    }
+
+}
@@ -1,14 +1,15 @@
 package top.orosirian.orodisk.service;
 
 import cn.dev33.satoken.stp.StpUtil;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.mindrot.jbcrypt.BCrypt;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import top.orosirian.orodisk.mappers.UserMapper;
 import top.orosirian.orodisk.model.entity.User;
 import top.orosirian.orodisk.model.request.LoginRequest;
@@ -19,7 +20,8 @@ import top.orosirian.orodisk.utils.Constant;
 import top.orosirian.orodisk.utils.exceptions.BusinessException;
 import top.orosirian.orodisk.utils.enums.UserStatus;
 
-import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
 
 @Slf4j
@@ -29,14 +31,44 @@ public class UserService {
     @Value("${disk.quota.default-size}")
     private Long defaultQuota;
 
+    private static final String QUOTA_TOTAL = "total";
+    private static final String QUOTA_USED = "used";
+    private static final String QUOTA_RESERVED = "reserved";
+
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 1 then " +
+            "    return 0 " +
+            "end " +
+            "redis.call('hset', KEYS[1], 'total', ARGV[1], 'used', ARGV[2], 'reserved', ARGV[3]) " +
+            "redis.call('expire', KEYS[1], ARGV[4]) " +
+            "return 1", Long.class);
+
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then " +
+            "    return 0 " +
+            "end " +
+            "redis.call('hincrby', KEYS[1], 'used', ARGV[1]) " +
+            "redis.call('hincrby', KEYS[1], 'reserved', ARGV[2]) " +
+            "return 1", Long.class);
+
+    // -1: 未缓存 0: 空间不足 1: 已扣减
+    private static final DefaultRedisScript<Long> ADMIT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then " +
+            "    return -1 " +
+            "end " +
+            "local quota = redis.call('hmget', KEYS[1], 'total', 'used', 'reserved') " +
+            "if tonumber(quota[2]) + tonumber(quota[3]) + tonumber(ARGV[1]) > tonumber(quota[1]) then " +
+            "    return 0 " +
+            "end " +
+            "redis.call('hincrby', KEYS[1], 'used', ARGV[1]) " +
+            "return 1", Long.class);
+
     private final UserMapper userMapper;
     private final StringRedisTemplate redisTemplate;
-    private final ObjectMapper objectMapper;
 
-    public UserService(UserMapper userMapper, StringRedisTemplate redisTemplate, ObjectMapper objectMapper) {
+    public UserService(UserMapper userMapper, StringRedisTemplate redisTemplate) {
         this.userMapper = userMapper;
         this.redisTemplate = redisTemplate;
-        this.objectMapper = objectMapper;
     }
 
     @Transactional
@@ -131,24 +163,43 @@ public class UserService {
      */
     public UserQuota getUserQuota(Long userId) {
         String cacheKey = Constant.USER_QUOTA_CACHE_PREFIX + userId;
-        String cached = redisTemplate.opsForValue().get(cacheKey);
-        
-        if (cached != null) {
-            try {
-                return objectMapper.readValue(cached, UserQuota.class);
-            } catch (JsonProcessingException e) {
-                log.warn("Failed to parse quota cache: userId={}", userId, e);
-            }
+        Map<Object, Object> cached = redisTemplate.opsForHash().entries(cacheKey);
+        if (cached.size() == 3) {
+            return new UserQuota(
+                    Long.valueOf((String) cached.get(QUOTA_TOTAL)),
+                    Long.valueOf((String) cached.get(QUOTA_USED)),
+                    Long.valueOf((String) cached.get(QUOTA_RESERVED)));
         }
-        
-        User user = userMapper.selectById(userId, UserStatus.NORMAL.getCode());
-        if (user == null) {
-            throw new BusinessException("User not found");
+        return loadQuotaCache(userId);
+    }
+
+    /**
+     * Check and increase used quota atomically on the cache, then persist with a conditional update
+     */
+    public void tryIncrementUsedQuota(Long userId, Long fileSize) {
+        Long admitted = executeAdmit(userId, fileSize);
+        if (admitted != null && admitted == -1) {
+            loadQuotaCache(userId);
+            admitted = executeAdmit(userId, fileSize);
         }
-        
-        UserQuota quota = new UserQuota(user.getTotalQuota(), user.getUsedQuota());
-        setQuotaCache(userId, quota);
-        return quota;
+        if (admitted == null || admitted == 0) {
+            throw new BusinessException("Insufficient storage space");
+        }
+        // 缓存可能漏掉了加载期间并发提交的增量，以数据库的条件更新为准，不一致时丢弃缓存重新加载；
+        // 数据库更新抛异常时缓存上已扣减的增量同样作废
+        int updated;
+        try {
+            updated = userMapper.tryIncrementQuota(userId, fileSize);
+        } catch (RuntimeException e) {
+            evictQuotaCache(userId);
+            throw e;
+        }
+        if (updated == 0) {
+            evictQuotaCache(userId);
+            throw new BusinessException("Insufficient storage space");
+        }
+        registerCacheRollback(userId, -fileSize, 0L);
+        log.debug("Increase quota: userId={}, fileSize={}", userId, fileSize);
     }
 
     /**
@@ -156,7 +207,7 @@ public class UserService {
      */
     public void incrementUsedQuota(Long userId, Long fileSize) {
         userMapper.incrementQuota(userId, fileSize);
-        updateQuotaCache(userId, fileSize);
+        updateQuotaCache(userId, fileSize, 0L);
         log.debug("Increase quota: userId={}, fileSize={}", userId, fileSize);
     }
 
@@ -165,10 +216,47 @@ public class UserService {
      */
     public void decrementUsedQuota(Long userId, Long fileSize) {
         userMapper.decrementQuota(userId, fileSize);
-        updateQuotaCache(userId, -fileSize);
+        updateQuotaCache(userId, -fileSize, 0L);
         log.debug("Decrease quota: userId={}, fileSize={}", userId, fileSize);
     }
 
+    /**
+     * Reserve quota for an upload in progress; the check and the reservation are a single conditional update
+     */
+    public void reserveQuota(Long userId, Long size) {
+        if (userMapper.reserveQuota(userId, size) == 0) {
+            throw new BusinessException("Insufficient storage space");
+        }
+        updateQuotaCache(userId, 0L, size);
+        log.debug("Reserve quota: userId={}, size={}", userId, size);
+    }
+
+    /**
+     * Release a reservation that will not be used (abort, expiry, failure)
+     */
+    public void releaseQuota(Long userId, Long size) {
+        userMapper.releaseQuota(userId, size);
+        updateQuotaCache(userId, 0L, -size);
+        log.debug("Release quota: userId={}, size={}", userId, size);
+    }
+
+    /**
+     * Turn a reservation into used quota (cache + database)
+     */
+    public void commitReservedQuota(Long userId, Long size) {
+        userMapper.commitReservedQuota(userId, size);
+        updateQuotaCache(userId, size, -size);
+        log.debug("Commit reserved quota: userId={}, size={}", userId, size);
+    }
+
+    /**
+     * Cached used quota, null when not cached
+     */
+    public Long getCachedUsedQuota(Long userId) {
+        Object used = redisTemplate.opsForHash().get(Constant.USER_QUOTA_CACHE_PREFIX + userId, QUOTA_USED);
+        return used == null ? null : Long.valueOf((String) used);
+    }
+
     /**
      * Evict quota cache (called when quota changes)
      */
@@ -178,30 +266,51 @@ public class UserService {
         log.debug("Evict quota cache: userId={}", userId);
     }
 
-    private void setQuotaCache(Long userId, UserQuota quota) {
-        String cacheKey = Constant.USER_QUOTA_CACHE_PREFIX + userId;
-        try {
-            String json = objectMapper.writeValueAsString(quota);
-            redisTemplate.opsForValue().set(cacheKey, json, Duration.ofSeconds(Constant.CACHE_QUOTA_TTL));
-        } catch (JsonProcessingException e) {
-            log.warn("Failed to serialize quota cache: userId={}", userId, e);
+    private UserQuota loadQuotaCache(Long userId) {
+        User user = userMapper.selectById(userId, UserStatus.NORMAL.getCode());
+        if (user == null) {
+            throw new BusinessException("User not found");
         }
+        UserQuota quota = new UserQuota(user.getTotalQuota(), user.getUsedQuota(),
+                Objects.requireNonNullElse(user.getReservedQuota(), 0L));
+        // 只在缓存不存在时写入；读库之后、写入之前提交的增量会因缓存不存在而漏掉，
+        // 所以准入仍以数据库的条件更新为准，缓存只用于快速拒绝
+        redisTemplate.execute(LOAD_SCRIPT, Collections.singletonList(Constant.USER_QUOTA_CACHE_PREFIX + userId),
+                String.valueOf(quota.getTotalQuota()), String.valueOf(quota.getUsedQuota()),
+                String.valueOf(quota.getReservedQuota()), String.valueOf(Constant.CACHE_QUOTA_TTL));
+        return quota;
     }
 
-    private void updateQuotaCache(Long userId, Long delta) {
-        String cacheKey = Constant.USER_QUOTA_CACHE_PREFIX + userId;
-        String cached = redisTemplate.opsForValue().get(cacheKey);
-        
-        if (cached != null) {
-            try {
-                UserQuota quota = objectMapper.readValue(cached, UserQuota.class);
-                quota.setUsedQuota(quota.getUsedQuota() + delta);
-                setQuotaCache(userId, quota);
-            } catch (JsonProcessingException e) {
-                log.warn("Failed to update quota cache: userId={}", userId, e);
-                redisTemplate.delete(cacheKey);
-            }
+    private Long executeAdmit(Long userId, Long fileSize) {
+        return redisTemplate.execute(ADMIT_SCRIPT, Collections.singletonList(Constant.USER_QUOTA_CACHE_PREFIX + userId),
+                String.valueOf(fileSize));
+    }
+
+    /**
+     * Apply deltas to the cached counters (one round-trip; skipped when not cached) and undo them if the surrounding transaction rolls back
+     */
+    private void updateQuotaCache(Long userId, Long usedDelta, Long reservedDelta) {
+        applyQuotaDelta(userId, usedDelta, reservedDelta);
+        registerCacheRollback(userId, -usedDelta, -reservedDelta);
+    }
+
+    private void applyQuotaDelta(Long userId, Long usedDelta, Long reservedDelta) {
+        redisTemplate.execute(UPDATE_SCRIPT, Collections.singletonList(Constant.USER_QUOTA_CACHE_PREFIX + userId),
+                String.valueOf(usedDelta), String.valueOf(reservedDelta));
+    }
+
+    private void registerCacheRollback(Long userId, Long usedDelta, Long reservedDelta) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
         }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    applyQuotaDelta(userId, usedDelta, reservedDelta);
+                }
+            }
+        });
     }
 
     /**
@@ -213,5 +322,6 @@ public class UserService {
     public static class UserQuota {
         private Long totalQuota;
         private Long usedQuota;
+        private Long reservedQuota;
     }
 }
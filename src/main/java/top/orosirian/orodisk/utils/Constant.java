@@ -10,15 +10,32 @@ public class Constant {
     public static final String UPLOAD_LOCK_PREFIX = LOCK_PREFIX + "upload:";
     public static final String FOLDER_LOCK_PREFIX = LOCK_PREFIX + "folder:";
     public static final String FILE_LOCK_PREFIX = LOCK_PREFIX + "file:";
+    public static final String TASK_LOCK_PREFIX = LOCK_PREFIX + "task:";
 
     public static final long LOCK_LEASE_TIME = 30;
+    public static final long TASK_LOCK_LEASE_TIME = 1800;
 
     public static final String CACHE_PREFIX = "disk:cache:";
-    public static final String USER_QUOTA_CACHE_PREFIX = CACHE_PREFIX + "user:quota:";
+    public static final String USER_QUOTA_CACHE_PREFIX = CACHE_PREFIX + "user:quota-hash:";
+    public static final String LISTING_CACHE_PREFIX = CACHE_PREFIX + "listing:";
+    public static final String LISTING_GEN_PREFIX = CACHE_PREFIX + "listing-gen:";
+    public static final String LISTING_INVALIDATE_CHANNEL = "disk:channel:listing-invalidate";
     public static final String QUEUE_KEY = "disk:vector:queue:";
     public static final String INFO_KEY = "disk:vector:info:";
     public static final long CACHE_QUOTA_TTL = 3600;
 
+    public static final String MERGE_JOB_PREFIX = "disk:merge:job:";
+    public static final long MERGE_JOB_TTL = 86400;
+
+    public static final String STORAGE_RECONCILE_CHECKPOINT = "disk:task:storage-reconcile:checkpoint";
+    public static final String STORAGE_RECONCILE_HASH_CURSOR = "disk:task:storage-reconcile:hash-cursor";
+    public static final String STORAGE_MIGRATION_CURSOR = "disk:task:storage-migration:cursor";
+    public static final String STORAGE_REBALANCE_CURSOR_PREFIX = "disk:task:storage-rebalance:cursor:";
+
+    public static final String UPLOAD_SESSION_PREFIX = "disk:upload:session:";
+    public static final String UPLOAD_CHUNKS_PREFIX = "disk:upload:chunks:";
+    public static final long UPLOAD_SESSION_TTL = 86400;
+
     public static final Set<String> VIDEO_EXTENSIONS = new HashSet<>(Arrays.asList(
             "mp4", "avi", "mkv", "mov", "wmv", "flv", "webm", "m4v", "mpeg", "mpg", "3gp"
     ));
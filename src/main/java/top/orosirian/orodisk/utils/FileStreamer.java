@@ -0,0 +1,475 @@
+package top.orosirian.orodisk.utils;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.model.dto.FileData;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.utils.enums.StorageCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 文件输出：支持 Range / If-Range（单段 206 与多段 multipart/byteranges），以及基于存储MD5的ETag条件请求
+ * 单段/整文件优先交给Tomcat的sendfile，否则用FileChannel.transferTo写出，不经过堆内byte[]
+ * 压缩存放的内容：客户端接受对应Content-Encoding且不带Range时原样发送落盘字节，否则边解压边输出
+ */
+@Component
+public class FileStreamer {
+
+    // Tomcat NIO连接器的sendfile约定属性，见org.apache.coyote.Constants
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // 与Tomcat DefaultServlet一致，小文件直接拷贝比sendfile更划算
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    // 超过该段数直接返回整个文件，防止恶意的碎片化Range请求
+    private static final int MAX_RANGES = 16;
+
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${disk.storage.sendfile:true}")
+    private boolean sendfileEnabled;
+
+    @Value("${disk.storage.cache-max-age:31536000}")
+    private long cacheMaxAge;
+
+    // direct：JVM自己输出；x-accel：交给nginx；x-sendfile：交给Apache/lighttpd
+    @Value("${disk.storage.delivery:direct}")
+    private String deliveryMode;
+
+    @Value("${disk.storage.accel-prefix:/internal-storage/}")
+    private String accelPrefix;
+
+    private final StorageCompressor storageCompressor;
+
+    public FileStreamer(StorageCompressor storageCompressor) {
+        this.storageCompressor = storageCompressor;
+    }
+
+    /**
+     * @param revalidate true时要求缓存每次回源校验（分享链接可能被取消），否则按内容不可变长期缓存
+     * @return 是否实际发送了文件内容（304/416时为false）
+     */
+    public boolean stream(HttpServletRequest request, HttpServletResponse response, FileData fileData,
+                          String contentType, boolean attachment, boolean revalidate) throws IOException {
+        File file = fileData.getFile();
+        long length = fileData.getLength();
+        long base = fileData.getOffset();
+        StorageCodec codec = fileData.getCodec();
+        // Range按未压缩的内容计算，带Range时只能解压后输出
+        boolean encoded = codec != StorageCodec.NONE && request.getHeader("Range") == null
+                && acceptsEncoding(request, codec.getContentEncoding());
+        String etag = etagOf(fileData.getStorage(), encoded ? codec : StorageCodec.NONE);
+        long lastModified = lastModifiedOf(fileData);
+
+        if (codec != StorageCodec.NONE) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", revalidate ? "public, no-cache" : "private, max-age=" + cacheMaxAge + ", immutable");
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Content-Disposition", (attachment ? "attachment" : "inline") + "; filename=" +
+                URLEncoder.encode(fileData.getFileName(), StandardCharsets.UTF_8));
+
+        if (codec != StorageCodec.NONE && !encoded) {
+            return streamDecoded(request, response, fileData, contentType, etag, lastModified);
+        }
+        if (encoded) {
+            response.setHeader("Content-Encoding", codec.getContentEncoding());
+        } else if (tryProxyOffload(response, fileData, contentType)) {
+            return true;
+        }
+
+        List<ByteRange> ranges = resolveRanges(request, length, etag, lastModified);
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + length);
+            return false;
+        }
+
+        if (ranges.size() <= 1) {
+            ByteRange range = ranges.isEmpty() ? new ByteRange(0, length - 1) : ranges.getFirst();
+            if (!ranges.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", range.contentRange(length));
+            }
+            response.setContentType(contentType);
+            response.setHeader("Content-Length", String.valueOf(range.length()));
+            if (trySendfile(request, file, base, range)) {
+                return true;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 OutputStream os = response.getOutputStream()) {
+                transfer(channel, Channels.newChannel(os), base + range.start(), range.length());
+                os.flush();
+            }
+            return true;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             OutputStream os = response.getOutputStream()) {
+            writeMultipart(channel, os, response, base, ranges, contentType, length);
+            os.flush();
+        }
+        return true;
+    }
+
+    /**
+     * 解压输出，只支持单段Range（解压后跳过前面的内容），多段时返回整个文件
+     */
+    private boolean streamDecoded(HttpServletRequest request, HttpServletResponse response, FileData fileData,
+                                  String contentType, String etag, long lastModified) throws IOException {
+        long length = fileData.getStorage().getStorageSize();
+        List<ByteRange> ranges = resolveRanges(request, length, etag, lastModified);
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + length);
+            return false;
+        }
+        ByteRange range = new ByteRange(0, length - 1);
+        if (ranges.size() == 1) {
+            range = ranges.getFirst();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", range.contentRange(length));
+        }
+        response.setContentType(contentType);
+        response.setHeader("Content-Length", String.valueOf(range.length()));
+        try (InputStream in = storageCompressor.open(fileData.getStorage());
+             OutputStream os = response.getOutputStream()) {
+            in.skipNBytes(range.start());
+            byte[] buffer = new byte[DECODE_BUFFER_SIZE];
+            long remaining = range.length();
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                os.write(buffer, 0, read);
+                remaining -= read;
+            }
+            os.flush();
+        }
+        return true;
+    }
+
+    /**
+     * 存储按内容寻址，MD5即强校验器；压缩编码发送的是另一份表示，需要不同的强校验器
+     */
+    private String etagOf(Storage storage, StorageCodec codec) {
+        if (codec == StorageCodec.NONE) {
+            return "\"" + storage.getMd5() + "\"";
+        }
+        return "\"" + storage.getMd5() + "-" + codec.getContentEncoding() + "\"";
+    }
+
+    /**
+     * q=0表示明确拒绝；*匹配任意编码
+     */
+    private boolean acceptsEncoding(HttpServletRequest request, String encoding) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean accepted = false;
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parts = candidate.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase(encoding) && !name.equals("*")) {
+                continue;
+            }
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        rejected = Double.parseDouble(param.substring(2).trim()) <= 0;
+                    } catch (NumberFormatException e) {
+                        rejected = true;
+                    }
+                }
+            }
+            // 明确列出的编码优先于*
+            if (name.equalsIgnoreCase(encoding)) {
+                return !rejected;
+            }
+            accepted = !rejected;
+        }
+        return accepted;
+    }
+
+    private long lastModifiedOf(FileData fileData) {
+        LocalDateTime createdTime = fileData.getStorage().getCreatedTime();
+        long millis = createdTime != null
+                ? createdTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : fileData.getFile().lastModified();
+        // HTTP日期只精确到秒
+        return millis / 1000 * 1000;
+    }
+
+    private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // 有If-None-Match时忽略If-Modified-Since
+            return matchesAny(ifNoneMatch, etag);
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+    }
+
+    private boolean matchesAny(String ifNoneMatch, String etag) {
+        if (ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // If-None-Match使用弱比较
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 鉴权已在调用方完成，这里只返回内部跳转头，文件内容（含Range）由反向代理直接发送
+     */
+    private boolean tryProxyOffload(HttpServletResponse response, FileData fileData, String contentType) {
+        // 反向代理只能发送整个文件，打包存放的小文件由JVM按偏移输出
+        if (fileData.isPacked()) {
+            return false;
+        }
+        switch (deliveryMode) {
+            case "x-accel" -> response.setHeader("X-Accel-Redirect", accelUri(fileData.getStorage()));
+            case "x-sendfile" -> response.setHeader("X-Sendfile", fileData.getFile().getAbsolutePath());
+            default -> {
+                return false;
+            }
+        }
+        response.setContentType(contentType);
+        return true;
+    }
+
+    /**
+     * 0号卷直接挂在accel-prefix下，其余卷为 accel-prefix + v<卷号>/，需在nginx中分别映射
+     */
+    private String accelUri(Storage storage) {
+        StringBuilder uri = new StringBuilder(accelPrefix.endsWith("/") ? accelPrefix : accelPrefix + "/");
+        Integer volumeId = storage.getVolumeId();
+        if (volumeId != null && volumeId != StorageVolumes.DEFAULT_VOLUME) {
+            uri.append('v').append(volumeId).append('/');
+        }
+        String storagePath = storage.getStoragePath();
+        String[] segments = storagePath.replace('\\', '/').split("/");
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                uri.append('/');
+            }
+            uri.append(URLEncoder.encode(segments[i], StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        return uri.toString();
+    }
+
+    /**
+     * 由容器在请求结束后用sendfile(2)直接从页缓存写入socket
+     */
+    private boolean trySendfile(HttpServletRequest request, File file, long base, ByteRange range) {
+        if (!sendfileEnabled || range.length() < SENDFILE_THRESHOLD
+                || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME_ATTR, file.getAbsolutePath());
+        request.setAttribute(SENDFILE_START_ATTR, base + range.start());
+        request.setAttribute(SENDFILE_END_ATTR, base + range.end() + 1);
+        return true;
+    }
+
+    private void writeMultipart(FileChannel channel, OutputStream os, HttpServletResponse response, long base,
+                                List<ByteRange> ranges, String contentType, long length) throws IOException {
+        WritableByteChannel target = Channels.newChannel(os);
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] header = ("\r\n--" + boundary + "\r\n" +
+                    "Content-Type: " + contentType + "\r\n" +
+                    "Content-Range: " + range.contentRange(length) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + range.length();
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += end.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setHeader("Content-Length", String.valueOf(contentLength));
+
+        for (int i = 0; i < ranges.size(); i++) {
+            os.write(partHeaders.get(i));
+            transfer(channel, target, base + ranges.get(i).start(), ranges.get(i).length());
+        }
+        os.write(end);
+    }
+
+    private void transfer(FileChannel channel, WritableByteChannel target, long position, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                // 文件被截断
+                break;
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * @return 空列表表示返回整个文件；null表示范围无法满足(416)
+     */
+    private List<ByteRange> resolveRanges(HttpServletRequest request, long length, String etag, long lastModified) {
+        String rangeHeader = request.getHeader("Range");
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+            return List.of();
+        }
+        if (!isIfRangeMatched(request.getHeader("If-Range"), etag, lastModified)) {
+            return List.of();
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : rangeHeader.substring("bytes=".length()).split(",")) {
+            ByteRange range;
+            try {
+                range = parseRangeSpec(spec.trim(), length);
+            } catch (NumberFormatException e) {
+                // 语法错误的Range按规范忽略
+                return List.of();
+            }
+            if (range != null) {
+                ranges.add(range);
+            }
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        if (ranges.size() > MAX_RANGES) {
+            return List.of();
+        }
+        return coalesce(ranges);
+    }
+
+    private boolean isIfRangeMatched(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range要求强比较，弱标签一律不匹配
+            return ifRange.equals(etag);
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+            return date == lastModified;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private ByteRange parseRangeSpec(String spec, long length) {
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            throw new NumberFormatException("Invalid range: " + spec);
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+
+        if (first.isEmpty()) {
+            // 后缀范围：bytes=-N
+            long suffix = Long.parseLong(last);
+            if (suffix <= 0 || length == 0) {
+                return null;
+            }
+            return new ByteRange(Math.max(0, length - suffix), length - 1);
+        }
+
+        long start = Long.parseLong(first);
+        long end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+        if (start < 0 || end < start) {
+            throw new NumberFormatException("Invalid range: " + spec);
+        }
+        if (start >= length) {
+            return null;
+        }
+        return new ByteRange(start, Math.min(end, length - 1));
+    }
+
+    private List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() == 1) {
+            return ranges;
+        }
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(ByteRange::start));
+        List<ByteRange> merged = new ArrayList<>();
+        ByteRange current = sorted.getFirst();
+        for (int i = 1; i < sorted.size(); i++) {
+            ByteRange next = sorted.get(i);
+            if (next.start() <= current.end() + 1) {
+                current = new ByteRange(current.start(), Math.max(current.end(), next.end()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    private record ByteRange(long start, long end) {
+
+        long length() {
+            return end - start + 1;
+        }
+
+        String contentRange(long total) {
+            return "bytes " + start + "-" + end + "/" + total;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package top.orosirian.orodisk.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import top.orosirian.orodisk.mappers.FileMapper;
+import top.orosirian.orodisk.model.dto.FolderStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文件夹大小和项数的增量维护：文件或文件夹新增、删除、移动、恢复时，按其path把增量累加到每个祖先文件夹，
+ * 定时按批合并写回folder_size/item_count，同一文件夹的多次变更只写一次
+ * 增量只在内存中，进程异常退出时丢失的部分由FolderStatsReconcileTask修正
+ * 写回后失效受影响的目录列表缓存：文件夹自身的列表（合计大小）和所在的列表（该行的大小）
+ */
+@Slf4j
+@Component
+public class FolderStatsTracker {
+
+    @Value("${disk.folder-stats.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    private final FileMapper fileMapper;
+    private final ListingCache listingCache;
+    private final Map<Long, FolderStats> pending = new ConcurrentHashMap<>();
+    // 文件夹所属用户和父文件夹，写回后失效列表缓存用
+    private final Map<Long, Owner> owners = new ConcurrentHashMap<>();
+
+    public FolderStatsTracker(FileMapper fileMapper, ListingCache listingCache) {
+        this.fileMapper = fileMapper;
+        this.listingCache = listingCache;
+    }
+
+    /**
+     * 在事务中调用时提交后才计入，回滚的变更不影响统计
+     *
+     * @param path 发生变化的文件或文件夹的path，即其全部祖先文件夹
+     */
+    public void record(Long userId, String path, long sizeDelta, long countDelta) {
+        if (path == null || (sizeDelta == 0 && countDelta == 0)) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            accumulate(userId, path, sizeDelta, countDelta);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                accumulate(userId, path, sizeDelta, countDelta);
+            }
+        });
+    }
+
+    private void accumulate(Long userId, String path, long sizeDelta, long countDelta) {
+        Long parentId = 0L;
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            Long folderId = Long.parseLong(segment);
+            owners.put(folderId, new Owner(userId, parentId));
+            parentId = folderId;
+            pending.merge(folderId, new FolderStats(folderId, sizeDelta, countDelta),
+                    (a, b) -> new FolderStats(folderId, a.getFolderSize() + b.getFolderSize(), a.getItemCount() + b.getItemCount()));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${disk.folder-stats.flush-interval:2000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<FolderStats> batch = new ArrayList<>();
+        // remove与merge对同一key原子，取走的增量不会与新的变更相互覆盖
+        for (Long folderId : new ArrayList<>(pending.keySet())) {
+            FolderStats delta = pending.remove(folderId);
+            if (delta == null || (delta.getFolderSize() == 0 && delta.getItemCount() == 0)) {
+                owners.remove(folderId);
+                continue;
+            }
+            batch.add(delta);
+            if (batch.size() == flushBatchSize) {
+                write(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        write(batch);
+    }
+
+    private void write(List<FolderStats> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            fileMapper.addFolderStats(batch);
+        } catch (Exception e) {
+            log.warn("Failed to flush folder stats: size={}", batch.size(), e);
+        }
+        for (FolderStats delta : batch) {
+            Owner owner = owners.remove(delta.getFileId());
+            if (owner != null) {
+                listingCache.invalidate(owner.userId(), delta.getFileId());
+                listingCache.invalidate(owner.userId(), owner.parentId());
+            }
+        }
+    }
+
+    private record Owner(Long userId, Long parentId) {
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+}
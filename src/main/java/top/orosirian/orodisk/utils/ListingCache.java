@@ -0,0 +1,218 @@
+package top.orosirian.orodisk.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import top.orosirian.orodisk.model.response.FileListResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 目录列表缓存，按(userId, parentId)组织，每个文件夹下按分页游标缓存各页
+ * 本地一级：LRU + 短TTL；Redis二级：数据key带代号，失效时INCR代号，加载期间发生的失效不会被旧结果覆盖
+ * 变更在事务提交后失效对应文件夹，并通过Redis发布订阅通知其他节点清掉本地一级
+ */
+@Slf4j
+@Component
+public class ListingCache {
+
+    @Value("${disk.listing-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${disk.listing-cache.local-ttl:30000}")
+    private long localTtl;
+
+    @Value("${disk.listing-cache.redis-ttl:600}")
+    private long redisTtl;
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, LocalEntry> local;
+
+    // 本节点收到的失效次数，加载前后不一致时不写入本地一级，避免加载期间的失效被旧结果覆盖
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Counter localHits;
+    private final Counter localMisses;
+    private final Counter redisHits;
+    private final Counter redisMisses;
+
+    public ListingCache(StringRedisTemplate redisTemplate, ObjectMapper objectMapper,
+                        RedisMessageListenerContainer listenerContainer, MeterRegistry meterRegistry,
+                        @Value("${disk.listing-cache.local-max-size:10000}") int localMaxSize) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.listenerContainer = listenerContainer;
+        this.meterRegistry = meterRegistry;
+        this.local = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LocalEntry> eldest) {
+                return size() > localMaxSize;
+            }
+        });
+        this.localHits = requests(meterRegistry, "local", "hit");
+        this.localMisses = requests(meterRegistry, "local", "miss");
+        this.redisHits = requests(meterRegistry, "redis", "hit");
+        this.redisMisses = requests(meterRegistry, "redis", "miss");
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("disk.listing.cache.requests")
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 命中率的Gauge持有this，放在构造完成之后注册
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("disk.listing.cache.hit.ratio", this, ListingCache::hitRatio)
+                .description("Listing requests served by either cache tier")
+                .register(meterRegistry);
+        Gauge.builder("disk.listing.cache.local.size", local, Map::size)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener((message, _) -> evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(Constant.LISTING_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * @param page 分页游标和页大小，同一文件夹下的各页分别缓存
+     */
+    public FileListResponse get(Long userId, Long parentId, String page, Supplier<FileListResponse> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        String folder = folderKey(userId, parentId);
+        LocalEntry entry = local.get(folder);
+        FileListResponse cached = entry != null && entry.expireAt > System.currentTimeMillis() ? entry.pages.get(page) : null;
+        if (cached != null) {
+            localHits.increment();
+            return cached;
+        }
+        localMisses.increment();
+
+        long epoch = invalidations.get();
+        String dataKey = null;
+        try {
+            String gen = redisTemplate.opsForValue().get(Constant.LISTING_GEN_PREFIX + folder);
+            dataKey = Constant.LISTING_CACHE_PREFIX + folder + ":" + (gen == null ? "0" : gen);
+            Object json = redisTemplate.opsForHash().get(dataKey, page);
+            if (json != null) {
+                cached = objectMapper.readValue(json.toString(), FileListResponse.class);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to read listing cache: folder={}", folder, e);
+        }
+        if (cached != null) {
+            redisHits.increment();
+        } else {
+            redisMisses.increment();
+            cached = loader.get();
+            if (dataKey != null) {
+                store(dataKey, page, cached);
+            }
+        }
+        if (invalidations.get() == epoch) {
+            long now = System.currentTimeMillis();
+            local.compute(folder, (_, old) -> old != null && old.expireAt > now ? old : new LocalEntry(now + localTtl))
+                    .pages.put(page, cached);
+        }
+        return cached;
+    }
+
+    private void store(String dataKey, String page, FileListResponse response) {
+        try {
+            redisTemplate.opsForHash().put(dataKey, page, objectMapper.writeValueAsString(response));
+            redisTemplate.expire(dataKey, Duration.ofSeconds(redisTtl));
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to serialize listing: key={}", dataKey, e);
+        } catch (Exception e) {
+            log.warn("Failed to write listing cache: key={}", dataKey, e);
+        }
+    }
+
+    /**
+     * 在事务中调用时提交后才失效，回滚的变更不影响缓存
+     */
+    public void invalidate(Long userId, Long parentId) {
+        if (!enabled || parentId == null) {
+            return;
+        }
+        String folder = folderKey(userId, parentId);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateNow(folder);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidateNow(folder);
+            }
+        });
+    }
+
+    private void invalidateNow(String folder) {
+        evictLocal(folder);
+        try {
+            String genKey = Constant.LISTING_GEN_PREFIX + folder;
+            redisTemplate.opsForValue().increment(genKey);
+            // 代号比数据多保留一个周期，过期重置时旧代号的数据早已过期
+            redisTemplate.expire(genKey, Duration.ofSeconds(redisTtl * 2));
+            redisTemplate.convertAndSend(Constant.LISTING_INVALIDATE_CHANNEL, folder);
+        } catch (Exception e) {
+            log.warn("Failed to invalidate listing cache: folder={}", folder, e);
+        }
+    }
+
+    private void evictLocal(String folder) {
+        invalidations.incrementAndGet();
+        local.remove(folder);
+    }
+
+    private double hitRatio() {
+        double total = localHits.count() + localMisses.count();
+        return total == 0 ? 0 : (localHits.count() + redisHits.count()) / total;
+    }
+
+    private static String folderKey(Long userId, Long parentId) {
+        return userId + ":" + parentId;
+    }
+
+    private static final class LocalEntry {
+
+        private final long expireAt;
+        private final Map<String, FileListResponse> pages = new ConcurrentHashMap<>();
+
+        private LocalEntry(long expireAt) {
+            this.expireAt = expireAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+package top.orosirian.orodisk.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import top.orosirian.orodisk.mappers.StoragePackMapper;
+import top.orosirian.orodisk.model.entity.StoragePack;
+import top.orosirian.orodisk.utils.enums.PackStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 小文件打包存储：不超过阈值的文件追加到所在卷的打包文件中，storage记录pack_id和偏移，避免海量小文件各占一个inode
+ * 每个节点在每个卷上各持有一个写入中的打包文件，同一打包文件的追加串行执行；写满或空闲一段时间后封存，
+ * 封存后不再追加，由PackCompactTask回收其中已删除内容占用的空间
+ * 打包文件行的写入在独立事务中提交，调用方事务回滚时不会带走仍在内存中继续追加的打包文件
+ */
+@Slf4j
+@Component
+public class PackStore {
+
+    @Value("${disk.storage.pack.enabled:true}")
+    private boolean enabled;
+
+    @Value("${disk.storage.pack.threshold:65536}")
+    private long threshold;
+
+    @Value("${disk.storage.pack.max-size:1073741824}")
+    private long maxSize;
+
+    @Value("${disk.storage.pack.seal-idle:3600000}")
+    private long sealIdle;
+
+    private final StoragePackMapper storagePackMapper;
+    private final StorageVolumes storageVolumes;
+    private final TransactionTemplate packTransaction;
+    private final Map<Integer, Writer> writers = new ConcurrentHashMap<>();
+
+    public PackStore(StoragePackMapper storagePackMapper, StorageVolumes storageVolumes, PlatformTransactionManager transactionManager) {
+        this.storagePackMapper = storagePackMapper;
+        this.storageVolumes = storageVolumes;
+        this.packTransaction = new TransactionTemplate(transactionManager);
+        this.packTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public boolean accepts(long size) {
+        return enabled && size <= threshold;
+    }
+
+    /**
+     * 追加到volumeId卷上当前的打包文件，返回写入位置；调用方落库失败时这段数据成为垃圾，由压缩任务回收
+     */
+    public Location append(int volumeId, byte[] data) throws IOException {
+        Writer writer = writers.computeIfAbsent(volumeId, Writer::new);
+        synchronized (writer) {
+            if (writer.channel == null || writer.size + data.length > maxSize) {
+                roll(writer);
+            }
+            long offset = writer.size;
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += writer.channel.write(buffer, position);
+            }
+            writer.size = position;
+            writer.lastWrite = System.currentTimeMillis();
+            return new Location(writer.packId, offset);
+        }
+    }
+
+    /**
+     * 空闲的打包文件及时封存，压缩任务只处理已封存的打包文件
+     */
+    @Scheduled(fixedDelayString = "${disk.storage.pack.seal-check-interval:60000}")
+    public void sealIdlePacks() {
+        long now = System.currentTimeMillis();
+        for (Writer writer : writers.values()) {
+            synchronized (writer) {
+                if (writer.channel != null && now - writer.lastWrite > sealIdle) {
+                    seal(writer);
+                }
+            }
+        }
+    }
+
+    private void roll(Writer writer) throws IOException {
+        if (writer.channel != null) {
+            seal(writer);
+        }
+        StoragePack pack = new StoragePack();
+        pack.setVolumeId(writer.volumeId);
+        pack.setStatus(PackStatus.OPEN.getCode());
+        packTransaction.executeWithoutResult(_ -> storagePackMapper.insert(pack));
+
+        Path path = storageVolumes.packPath(writer.volumeId, pack.getPackId());
+        Files.createDirectories(path.getParent());
+        writer.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writer.packId = pack.getPackId();
+        writer.size = 0;
+        log.info("Pack file opened: volume={}, packId={}", writer.volumeId, writer.packId);
+    }
+
+    private void seal(Writer writer) {
+        try {
+            writer.channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close pack file: packId={}", writer.packId, e);
+        }
+        packTransaction.executeWithoutResult(_ ->
+                storagePackMapper.updateStatus(writer.packId, PackStatus.OPEN.getCode(), PackStatus.SEALED.getCode()));
+        log.info("Pack file sealed: volume={}, packId={}, size={}", writer.volumeId, writer.packId, Funcs.formatFileSize(writer.size));
+        writer.channel = null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Writer writer : writers.values()) {
+            synchronized (writer) {
+                if (writer.channel != null) {
+                    seal(writer);
+                }
+            }
+        }
+    }
+
+    public record Location(long packId, long offset) {
+    }
+
+    private static final class Writer {
+
+        private final int volumeId;
+        private FileChannel channel;
+        private long packId;
+        private long size;
+        private long lastWrite;
+
+        private Writer(int volumeId) {
+            this.volumeId = volumeId;
+        }
+
+    }
+
+}
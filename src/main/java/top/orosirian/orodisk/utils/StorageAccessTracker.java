@@ -0,0 +1,83 @@
+package top.orosirian.orodisk.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.StorageMapper;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 存储访问统计：下载、预览、分享访问时只在内存中累加计数，定时按批合并写回storage的access_count/last_access_time
+ * 计数只在一个活跃窗口内累积，距上次访问超过窗口时从零开始，同时反映访问的频率和新近程度
+ * 各节点独立累加、增量写回；进程异常退出时丢失最近一个周期的计数，对分层判断影响可以忽略
+ */
+@Slf4j
+@Component
+public class StorageAccessTracker {
+
+    @Value("${disk.storage.tier.access-window-days:7}")
+    private long accessWindowDays;
+
+    @Value("${disk.storage.tier.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    private final StorageMapper storageMapper;
+    private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+    public StorageAccessTracker(StorageMapper storageMapper) {
+        this.storageMapper = storageMapper;
+    }
+
+    public void record(Long storageId) {
+        if (storageId != null) {
+            pending.merge(storageId, 1L, Long::sum);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${disk.storage.tier.flush-interval:10000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime windowStart = now.minusDays(accessWindowDays);
+        Map<Long, Long> batch = new HashMap<>();
+        // remove与merge对同一key原子，取走的计数不会与新的访问相互覆盖
+        for (Long storageId : new ArrayList<>(pending.keySet())) {
+            Long count = pending.remove(storageId);
+            if (count == null) {
+                continue;
+            }
+            batch.put(storageId, count);
+            if (batch.size() == flushBatchSize) {
+                write(batch, now, windowStart);
+                batch = new HashMap<>();
+            }
+        }
+        write(batch, now, windowStart);
+    }
+
+    private void write(Map<Long, Long> batch, LocalDateTime now, LocalDateTime windowStart) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            storageMapper.addAccessCounts(batch, now, windowStart);
+        } catch (Exception e) {
+            log.warn("Failed to flush storage access counts: size={}", batch.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+}
@@ -0,0 +1,171 @@
+package top.orosirian.orodisk.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.utils.enums.StorageCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 落盘压缩：文本、代码类文件写入存储前尝试gzip，压缩后不超过原大小max-ratio倍时才保留压缩结果
+ * storage_size和md5始终对应未压缩的内容，秒传和配额不受影响；stored_size为实际落盘的字节数
+ * 过大的文件不压缩，压缩后的内容无法按偏移随机读取，Range请求只能解压后跳过
+ */
+@Component
+public class StorageCompressor {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${disk.storage.compression.enabled:false}")
+    private boolean enabled;
+
+    @Value("${disk.storage.compression.min-size:4096}")
+    private long minSize;
+
+    @Value("${disk.storage.compression.max-size:67108864}")
+    private long maxSize;
+
+    @Value("${disk.storage.compression.max-ratio:0.9}")
+    private double maxRatio;
+
+    @Value("${disk.storage.compression.level:6}")
+    private int level;
+
+    private final StorageVolumes storageVolumes;
+
+    public StorageCompressor(StorageVolumes storageVolumes) {
+        this.storageVolumes = storageVolumes;
+    }
+
+    public boolean accepts(String fileName, long size) {
+        return enabled && size >= minSize && size <= maxSize && (Funcs.isText(fileName) || Funcs.isCode(fileName));
+    }
+
+    /**
+     * 压缩到target，压缩率不够时删除并返回null；target应与最终位置在同一卷上，落位时rename即可
+     */
+    public Path compress(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = new LevelGZIPOutputStream(
+                     Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), level)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        if (Files.size(target) > Files.size(source) * maxRatio) {
+            Files.deleteIfExists(target);
+            return null;
+        }
+        return target;
+    }
+
+    /**
+     * @return 压缩后的内容，压缩率不够时返回null
+     */
+    public byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 2);
+        try (OutputStream out = new LevelGZIPOutputStream(buffer, level)) {
+            out.write(data);
+        }
+        return buffer.size() > data.length * maxRatio ? null : buffer.toByteArray();
+    }
+
+    /**
+     * 打开解码后的内容，打包存放的只读取所在的一段
+     */
+    public InputStream open(Storage storage) throws IOException {
+        FileChannel channel = FileChannel.open(storageVolumes.resolve(storage), StandardOpenOption.READ);
+        InputStream in;
+        try {
+            if (storage.getPackId() != null) {
+                channel.position(storage.getPackOffset());
+                in = new BoundedInputStream(Channels.newInputStream(channel), StorageVolumes.storedLength(storage));
+            } else {
+                in = Channels.newInputStream(channel);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return StorageCodec.of(storage.getCodec()) == StorageCodec.GZIP ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    /**
+     * 读出解码后的完整内容，仅用于已知较小的文件
+     */
+    public byte[] readAllBytes(Storage storage) throws IOException {
+        if (StorageCodec.of(storage.getCodec()) == StorageCodec.NONE) {
+            return storageVolumes.readAllBytes(storage);
+        }
+        try (InputStream in = open(storage)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static final class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        private LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+
+    }
+
+    /**
+     * 只读取前limit字节，关闭时一并关闭底层流
+     */
+    private static final class BoundedInputStream extends InputStream {
+
+        private final InputStream in;
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+}
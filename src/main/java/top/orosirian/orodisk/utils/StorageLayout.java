@@ -0,0 +1,48 @@
+package top.orosirian.orodisk.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+
+/**
+ * 新文件的存储路径规则
+ * hash：按内容MD5前缀分级打散，如 ab/cd/abcd....ext，每级最多256个子目录，单目录条目数不随日上传量增长
+ * date：旧的 yyyy/MM/dd/md5.ext
+ */
+@Component
+public class StorageLayout {
+
+    public static final String HASH = "hash";
+    public static final String DATE = "date";
+
+    @Value("${disk.storage.layout:hash}")
+    private String layout;
+
+    @Value("${disk.storage.hash-levels:2}")
+    private int hashLevels;
+
+    public String generatePath(String md5, String extension) {
+        if (DATE.equals(layout)) {
+            return Funcs.generateStoragePath(md5, extension);
+        }
+        return hashPath(md5, extension);
+    }
+
+    public String hashPath(String md5, String extension) {
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < hashLevels; i++) {
+            path.append(md5, i * 2, i * 2 + 2).append(File.separator);
+        }
+        return path.append(md5).append('.').append(extension).toString();
+    }
+
+    public boolean isHashLayout() {
+        return !DATE.equals(layout);
+    }
+
+    public int getHashLevels() {
+        return hashLevels;
+    }
+
+}
@@ -0,0 +1,58 @@
+package top.orosirian.orodisk.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.model.entity.Storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * 卷间迁移独立存放的文件：先复制到目标卷的暂存目录再rename到位，随后条件更新volume_id
+ * 源文件由调用方间隔一段时间后再删除，让更新前已解析出旧位置的读请求仍能读完，迁移期间读取始终可用
+ */
+@Slf4j
+@Component
+public class StorageMover {
+
+    private final StorageMapper storageMapper;
+    private final StorageVolumes storageVolumes;
+
+    public StorageMover(StorageMapper storageMapper, StorageVolumes storageVolumes) {
+        this.storageMapper = storageMapper;
+        this.storageVolumes = storageVolumes;
+    }
+
+    /**
+     * @return 迁移成功后待删除的源路径；源文件不存在或记录已变化时返回null
+     */
+    public Path move(Storage storage, StorageVolumes.Placement placement) throws IOException {
+        Path source = storageVolumes.resolve(storage);
+        if (!Files.exists(source)) {
+            log.warn("存储文件不存在，跳过迁移: storageId={}, path={}", storage.getStorageId(), source);
+            return null;
+        }
+        Path staging = storageVolumes.stagingDir(placement.getVolumeId()).resolve(UUID.randomUUID().toString());
+        Path target = placement.getRoot().resolve(storage.getStoragePath());
+        try {
+            Files.createDirectories(staging.getParent());
+            Files.copy(source, staging);
+            Files.createDirectories(target.getParent());
+            Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+
+        if (storageMapper.updateVolume(storage.getStorageId(), storage.getStoragePath(), storage.getVolumeId(), placement.getVolumeId()) == 0) {
+            // 期间记录被删除或已被改动，撤回本次复制
+            Files.deleteIfExists(target);
+            return null;
+        }
+        return source;
+    }
+
+}
@@ -0,0 +1,267 @@
+package top.orosirian.orodisk.utils;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.utils.config.StorageVolumeProperties;
+import top.orosirian.orodisk.utils.enums.StorageTier;
+import top.orosirian.orodisk.utils.exceptions.BusinessException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * 存储卷：storage记录的volume_id + storage_path 定位物理文件
+ * 新文件按剩余空间和正在写入的数量选择卷，剩余空间越多、并发写入越少的卷得分越高，多块盘可以同时承担写入
+ */
+@Slf4j
+@Component
+public class StorageVolumes {
+
+    public static final int DEFAULT_VOLUME = 0;
+
+    private static final String STAGING_DIR = ".staging";
+    private static final String PACK_DIR = ".packs";
+
+    private final Map<Integer, Volume> volumes;
+    private final long minFreeBytes;
+
+    public StorageVolumes(StorageVolumeProperties properties) {
+        Map<Integer, Volume> map = new TreeMap<>();
+        for (StorageVolumeProperties.Volume config : properties.getVolumes()) {
+            if (config.getId() == null || config.getPath() == null) {
+                throw new IllegalStateException("Storage volume requires id and path");
+            }
+            Volume volume = new Volume(config.getId(), Paths.get(config.getPath()), config.isReadOnly(), config.getTier());
+            if (map.put(config.getId(), volume) != null) {
+                throw new IllegalStateException("Duplicate storage volume id: " + config.getId());
+            }
+        }
+        map.putIfAbsent(DEFAULT_VOLUME, new Volume(DEFAULT_VOLUME, Paths.get(properties.getBasePath()), false, StorageTier.STANDARD));
+        this.volumes = Collections.unmodifiableMap(map);
+        this.minFreeBytes = properties.getMinFreeBytes();
+        map.values().forEach(volume -> log.info("Storage volume: id={}, path={}, readOnly={}, tier={}",
+                volume.getId(), volume.getRoot(), volume.isReadOnly(), volume.getTier()));
+    }
+
+    /**
+     * 打包存放的小文件解析为所在的打包文件，内容位于pack_offset起storedLength字节
+     */
+    public Path resolve(Storage storage) {
+        int volumeId = storage.getVolumeId() == null ? DEFAULT_VOLUME : storage.getVolumeId();
+        if (storage.getPackId() != null) {
+            return packPath(volumeId, storage.getPackId());
+        }
+        return root(volumeId).resolve(storage.getStoragePath());
+    }
+
+    public File resolveFile(Storage storage) {
+        return resolve(storage).toFile();
+    }
+
+    public Path root(int volumeId) {
+        return volume(volumeId).getRoot();
+    }
+
+    /**
+     * 上传暂存目录放在目标卷的根目录下，保证与最终路径同一文件系统，rename即可落盘
+     */
+    public Path stagingDir(int volumeId) {
+        return root(volumeId).resolve(STAGING_DIR);
+    }
+
+    public Path packPath(int volumeId, long packId) {
+        return root(volumeId).resolve(PACK_DIR).resolve(packId + ".pack");
+    }
+
+    /**
+     * 落盘的字节数，压缩存放时为stored_size，否则与storage_size相同
+     */
+    public static long storedLength(Storage storage) {
+        return storage.getStoredSize() != null ? storage.getStoredSize() : storage.getStorageSize();
+    }
+
+    /**
+     * 读出落盘的原始内容（压缩存放的不解压），仅用于已知较小的文件
+     */
+    public byte[] readAllBytes(Storage storage) throws IOException {
+        Path path = resolve(storage);
+        if (storage.getPackId() == null) {
+            return Files.readAllBytes(path);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(storedLength(storage)));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = storage.getPackOffset();
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of pack file: " + path);
+                }
+                position += read;
+            }
+        }
+        return buffer.array();
+    }
+
+    public Volume volume(int volumeId) {
+        Volume volume = volumes.get(volumeId);
+        if (volume == null) {
+            throw new BusinessException("Storage volume not available");
+        }
+        return volume;
+    }
+
+    public Collection<Volume> all() {
+        return volumes.values();
+    }
+
+    /**
+     * 为大小为size的新文件选择卷，返回的Placement在写入结束后关闭
+     * 冷层只在其他卷都放不下时才接收新文件
+     */
+    public Placement place(long size) {
+        Volume volume = select(size, candidate -> candidate.getTier() != StorageTier.COLD);
+        return acquire(volume != null ? volume : require(select(size, _ -> true)));
+    }
+
+    /**
+     * 在与sourceVolumeId同层的其他卷中选择，供卷间再平衡使用
+     */
+    public Placement place(long size, int sourceVolumeId) {
+        Volume source = volume(sourceVolumeId);
+        return acquire(require(select(size, candidate -> candidate.getId() != sourceVolumeId && candidate.getTier() == source.getTier())));
+    }
+
+    /**
+     * 在指定层中选择卷，供分层迁移使用
+     */
+    public Placement place(long size, StorageTier tier) {
+        return acquire(require(select(size, candidate -> candidate.getTier() == tier)));
+    }
+
+    public boolean hasTier(StorageTier tier) {
+        return volumes.values().stream().anyMatch(volume -> volume.getTier() == tier);
+    }
+
+    /**
+     * 剩余空间越多、并发写入越少的卷得分越高
+     */
+    private Volume select(long size, Predicate<Volume> filter) {
+        Volume best = null;
+        double bestScore = -1;
+        for (Volume volume : volumes.values()) {
+            if (volume.isReadOnly() || !filter.test(volume)) {
+                continue;
+            }
+            long free = availableSpace(volume);
+            if (free < size) {
+                continue;
+            }
+            double score = (double) free / (1 + volume.writes.get());
+            if (score > bestScore) {
+                best = volume;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private Volume require(Volume volume) {
+        if (volume == null) {
+            throw new BusinessException("Insufficient storage capacity");
+        }
+        return volume;
+    }
+
+    /**
+     * 写入位置已经确定时（如分片会话已选定的卷）同样计入该卷的并发写入
+     */
+    public Placement acquire(int volumeId) {
+        return acquire(volume(volumeId));
+    }
+
+    /**
+     * 扣除保留空间后的可用字节数
+     */
+    public long availableSpace(Volume volume) {
+        return Math.max(volume.getRoot().toFile().getUsableSpace() - minFreeBytes, 0);
+    }
+
+    /**
+     * 已用空间占比，卷不可访问时按已满处理
+     */
+    public double usage(Volume volume) {
+        File root = volume.getRoot().toFile();
+        long total = root.getTotalSpace();
+        if (total <= 0) {
+            return 1;
+        }
+        return 1 - (double) root.getUsableSpace() / total;
+    }
+
+    private Placement acquire(Volume volume) {
+        volume.writes.incrementAndGet();
+        return new Placement(volume);
+    }
+
+    @Getter
+    public static final class Volume {
+
+        private final int id;
+        private final Path root;
+        private final boolean readOnly;
+        private final StorageTier tier;
+        @Getter(AccessLevel.NONE)
+        private final AtomicInteger writes = new AtomicInteger();
+
+        private Volume(int id, Path root, boolean readOnly, StorageTier tier) {
+            this.id = id;
+            this.root = root;
+            this.readOnly = readOnly;
+            this.tier = tier;
+        }
+
+    }
+
+    public static final class Placement implements AutoCloseable {
+
+        private final Volume volume;
+        private boolean closed;
+
+        private Placement(Volume volume) {
+            this.volume = volume;
+        }
+
+        public int getVolumeId() {
+            return volume.getId();
+        }
+
+        public Path getRoot() {
+            return volume.getRoot();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                volume.writes.decrementAndGet();
+            }
+        }
+
+    }
+
+}
@@ -102,7 +102,7 @@ public class Tools {
         return fileService.createTextFile(userId, parentId, fileName, content);
     }
 
-    @Tool(description = "列出指定文件夹下的所有文件和子文件夹。不传folderId时默认列出当前用户所在文件夹。返回文件列表，每个文件包含ID、名称、类型(0=文件夹,1=文件)、大小。")
+    @Tool(description = "列出指定文件夹下的所有文件和子文件夹。不传folderId时默认列出当前用户所在文件夹。返回文件列表，每个文件包含ID、名称、类型(0=文件夹,1=文件)、大小（文件夹为其中全部文件的总大小，并带有其中的文件和文件夹数itemCount）。")
     public List<FileResponse> listFilesInFolder(
             @ToolParam(description = "文件夹ID，不传则使用当前所在文件夹", required = false) Long folderId,
             ToolContext toolContext) {
@@ -0,0 +1,98 @@
+package top.orosirian.orodisk.utils;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 分片上传的增量MD5：分片落盘后，若正好接上已摘要的前缀就立即从页缓存读回并推进摘要，
+ * 乱序到达的分片先挂起，等前面的空洞补上再一起推进。合并时摘要通常已经算完，无需再整文件读一遍
+ * 状态只在本进程内，分片落到不同节点或进程重启后由合并任务回退为整文件计算
+ */
+@Component
+public class UploadDigestTracker {
+
+    private static final int MAX_SESSIONS = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, Session> sessions = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            });
+
+    public void onChunkWritten(String uploadKey, Path partPath, long offset, long length) throws IOException {
+        Session session = sessions.computeIfAbsent(uploadKey, _ -> new Session());
+        synchronized (session) {
+            session.pending.put(offset, length);
+            advance(session, partPath);
+        }
+    }
+
+    /**
+     * @return 完整文件的MD5；增量状态不完整时返回null
+     */
+    public String finish(String uploadKey, long totalSize) {
+        Session session = sessions.remove(uploadKey);
+        if (session == null) {
+            return null;
+        }
+        synchronized (session) {
+            if (session.hashedUpTo != totalSize || !session.pending.isEmpty()) {
+                return null;
+            }
+            return Hex.encodeHexString(session.digest.digest());
+        }
+    }
+
+    public void discard(String uploadKey) {
+        sessions.remove(uploadKey);
+    }
+
+    private void advance(Session session, Path partPath) throws IOException {
+        if (!session.pending.containsKey(session.hashedUpTo)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            Long length;
+            while ((length = session.pending.remove(session.hashedUpTo)) != null) {
+                long position = session.hashedUpTo;
+                long end = position + length;
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int bytesRead = channel.read(buffer, position);
+                    if (bytesRead <= 0) {
+                        throw new IOException("Unexpected end of part file: " + partPath);
+                    }
+                    buffer.flip();
+                    session.digest.update(buffer);
+                    position += bytesRead;
+                }
+                session.hashedUpTo = end;
+            }
+        }
+    }
+
+    private static class Session {
+        private final MessageDigest digest = DigestUtils.getMd5Digest();
+        // offset -> length，已落盘但尚未接上前缀的分片
+        private final Map<Long, Long> pending = new HashMap<>();
+        private long hashedUpTo = 0;
+    }
+
+}
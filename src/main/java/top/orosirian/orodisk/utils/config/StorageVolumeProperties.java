@@ -0,0 +1,44 @@
+package top.orosirian.orodisk.utils.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.utils.enums.StorageTier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 存储卷配置，未单独配置0号卷时base-path即0号卷，兼容已有的storage记录
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "disk.storage")
+public class StorageVolumeProperties {
+
+    private String basePath;
+
+    private List<Volume> volumes = new ArrayList<>();
+
+    /**
+     * 每个卷至少保留的可用空间，低于此值不再放置新文件
+     */
+    private long minFreeBytes = 1024L * 1024 * 1024;
+
+    @Data
+    public static class Volume {
+
+        private Integer id;
+
+        private String path;
+
+        /**
+         * 只读卷仍可读取，但不再放置新文件
+         */
+        private boolean readOnly;
+
+        private StorageTier tier = StorageTier.STANDARD;
+
+    }
+
+}
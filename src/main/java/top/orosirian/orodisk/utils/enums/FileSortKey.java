@@ -0,0 +1,33 @@
+package top.orosirian.orodisk.utils.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import top.orosirian.orodisk.utils.exceptions.BusinessException;
+
+/**
+ * 文件列表的排序方式，每种都以file_id兜底成为唯一顺序，OroDisk.sql中有对应的组合索引
+ * TYPE为文件夹在前、同类型按名称，与原先不分页的列表顺序一致
+ * SIZE按列表中显示的大小（文件夹为其子树总大小），文件夹与文件混排
+ */
+@Getter
+@AllArgsConstructor
+public enum FileSortKey {
+
+    NAME("name"),
+    SIZE("size"),
+    TYPE("type"),
+    TIME("time"),
+    ;
+
+    private final String value;
+
+    public static FileSortKey of(String value) {
+        for (FileSortKey key : values()) {
+            if (key.value.equalsIgnoreCase(value)) {
+                return key;
+            }
+        }
+        throw new BusinessException("Unsupported sort key: " + value);
+    }
+
+}
@@ -10,6 +10,8 @@ public enum FileStatus {
     NORMAL(0),
     DELETED(1),
     RECYCLE(2),
+    // 随上级文件夹进入回收站，不单独出现在回收站列表中，随该文件夹一起恢复或删除
+    RECYCLE_NESTED(3),
     ;
 
     private final Integer code;
@@ -0,0 +1,18 @@
+package top.orosirian.orodisk.utils.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum MergeJobStatus {
+
+    PENDING(0),
+    RUNNING(1),
+    SUCCESS(2),
+    FAILED(3),
+    ;
+
+    private final Integer code;
+
+}
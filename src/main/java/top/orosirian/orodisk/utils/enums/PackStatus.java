@@ -0,0 +1,16 @@
+package top.orosirian.orodisk.utils.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum PackStatus {
+
+    OPEN(0),
+    SEALED(1),
+    ;
+
+    private final Integer code;
+
+}
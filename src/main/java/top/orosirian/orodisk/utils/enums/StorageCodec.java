@@ -0,0 +1,30 @@
+package top.orosirian.orodisk.utils.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 存储内容的落盘编码，contentEncoding为对应的HTTP Content-Encoding
+ */
+@Getter
+@AllArgsConstructor
+public enum StorageCodec {
+
+    NONE(0, null),
+    GZIP(1, "gzip"),
+    ;
+
+    private final Integer code;
+
+    private final String contentEncoding;
+
+    public static StorageCodec of(Integer code) {
+        for (StorageCodec codec : values()) {
+            if (codec.code.equals(code)) {
+                return codec;
+            }
+        }
+        return NONE;
+    }
+
+}
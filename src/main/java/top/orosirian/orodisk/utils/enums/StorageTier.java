@@ -0,0 +1,13 @@
+package top.orosirian.orodisk.utils.enums;
+
+/**
+ * 存储卷分层：热层容量小、速度快，冷层容量大、速度慢
+ */
+public enum StorageTier {
+
+    HOT,
+    STANDARD,
+    COLD,
+    ;
+
+}
@@ -0,0 +1,118 @@
+package top.orosirian.orodisk.utils.tasks;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.FileMapper;
+import top.orosirian.orodisk.model.dto.FolderStats;
+import top.orosirian.orodisk.model.entity.FileEntity;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.ListingCache;
+import top.orosirian.orodisk.utils.enums.FileStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文件夹统计对账：按file_id游标分批扫描文件夹，子树求和与folder_size/item_count不一致时，
+ * 等各节点把尚未写回的增量写回后复核，仍不一致才按条件修正；也用于为已有数据补齐统计
+ */
+@Slf4j
+@Component
+public class FolderStatsReconcileTask {
+
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "folder-stats-reconcile";
+
+    @Value("${disk.folder-stats.reconcile-batch-size:200}")
+    private int batchSize;
+
+    // 大于各节点的写回间隔，复核时已写回的增量不会被误判为偏差
+    @Value("${disk.folder-stats.settle-interval:5000}")
+    private long settleInterval;
+
+    private final FileMapper fileMapper;
+    private final ListingCache listingCache;
+    private final StringRedisTemplate redisTemplate;
+
+    public FolderStatsReconcileTask(FileMapper fileMapper, ListingCache listingCache, StringRedisTemplate redisTemplate) {
+        this.fileMapper = fileMapper;
+        this.listingCache = listingCache;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Scheduled(cron = "${disk.folder-stats.reconcile-cron:0 30 5 * * ?}")
+    public void reconcile() {
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            log.info("文件夹统计对账正在其他节点执行，跳过");
+            return;
+        }
+        log.info("开始文件夹统计对账...");
+        try {
+            // 留出余量，避免锁租约到期后与其他节点重叠
+            long deadline = System.currentTimeMillis() + (Constant.TASK_LOCK_LEASE_TIME - 60) * 1000;
+            long lastFileId = 0;
+            int checked = 0;
+            int fixed = 0;
+            List<FileEntity> page;
+            do {
+                page = fileMapper.selectFolderPage(lastFileId, batchSize);
+                if (page.isEmpty()) {
+                    break;
+                }
+                lastFileId = page.getLast().getFileId();
+                checked += page.size();
+                List<FileEntity> drifted = new ArrayList<>();
+                for (FileEntity folder : page) {
+                    if (!matches(folder, fileMapper.sumSubtreeStats(folder.getUserId(), subtreePrefix(folder)))) {
+                        drifted.add(folder);
+                    }
+                }
+                if (!drifted.isEmpty()) {
+                    Thread.sleep(settleInterval);
+                    for (FileEntity folder : drifted) {
+                        if (fixOne(folder.getFileId())) {
+                            fixed++;
+                        }
+                    }
+                }
+            } while (page.size() == batchSize && System.currentTimeMillis() < deadline);
+            log.info("文件夹统计对账完成，检查 {} 个文件夹，修正 {} 个", checked, fixed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("文件夹统计对账异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fixOne(Long folderId) {
+        FileEntity folder = fileMapper.selectById(folderId, FileStatus.NORMAL.getCode());
+        if (folder == null) {
+            return false;
+        }
+        FolderStats actual = fileMapper.sumSubtreeStats(folder.getUserId(), subtreePrefix(folder));
+        if (matches(folder, actual) || fileMapper.fixFolderStats(folderId, folder.getFolderSize(), folder.getItemCount(),
+                actual.getFolderSize(), actual.getItemCount()) == 0) {
+            return false;
+        }
+        listingCache.invalidate(folder.getUserId(), folderId);
+        listingCache.invalidate(folder.getUserId(), folder.getParentId());
+        log.warn("文件夹统计偏差已修正: folderId={}, size {} -> {}, items {} -> {}", folderId,
+                folder.getFolderSize(), actual.getFolderSize(), folder.getItemCount(), actual.getItemCount());
+        return true;
+    }
+
+    private boolean matches(FileEntity folder, FolderStats actual) {
+        return folder.getFolderSize() == actual.getFolderSize() && folder.getItemCount() == actual.getItemCount();
+    }
+
+    private String subtreePrefix(FileEntity folder) {
+        return folder.getPath() + folder.getFileId() + "/";
+    }
+
+}
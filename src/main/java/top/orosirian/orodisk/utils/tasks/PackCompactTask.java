@@ -0,0 +1,170 @@
+package top.orosirian.orodisk.utils.tasks;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.mappers.StoragePackMapper;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.model.entity.StoragePack;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.PackStore;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.enums.PackStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 打包文件压缩：storage行被孤立存储清理删除后，打包文件中的对应内容不再被引用
+ * 已删除内容占比超过garbage-ratio的打包文件，把仍被引用的内容追加到新的打包文件并逐行条件更新位置，
+ * 全部迁出后删除旧打包文件；与布局迁移一样间隔一个批次再删除，让更新前已解析出旧位置的读请求仍能读完
+ * 进程异常退出时未封存的打包文件，长时间没有写入后在这里封存
+ */
+@Slf4j
+@Component
+public class PackCompactTask {
+
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "pack-compact";
+
+    @Value("${disk.storage.pack.garbage-ratio:0.5}")
+    private double garbageRatio;
+
+    @Value("${disk.storage.pack.stale-hours:24}")
+    private long staleHours;
+
+    @Value("${disk.storage.pack.batch-interval:200}")
+    private long batchInterval;
+
+    @Value("${disk.clean.batch-size:500}")
+    private int batchSize;
+
+    private final StoragePackMapper storagePackMapper;
+    private final StorageMapper storageMapper;
+    private final StorageVolumes storageVolumes;
+    private final PackStore packStore;
+    private final StringRedisTemplate redisTemplate;
+
+    public PackCompactTask(StoragePackMapper storagePackMapper, StorageMapper storageMapper, StorageVolumes storageVolumes,
+                           PackStore packStore, StringRedisTemplate redisTemplate) {
+        this.storagePackMapper = storagePackMapper;
+        this.storageMapper = storageMapper;
+        this.storageVolumes = storageVolumes;
+        this.packStore = packStore;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Scheduled(cron = "${disk.storage.pack.compact-cron:0 0 5 * * ?}")
+    public void compact() {
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            log.info("打包文件压缩正在其他节点执行，跳过");
+            return;
+        }
+        log.info("开始压缩打包文件...");
+        try {
+            sealStalePacks();
+
+            // 刚封存的打包文件可能还有追加后尚未提交的storage行，等一段时间再处理
+            LocalDateTime before = LocalDateTime.now().minusHours(1);
+            long lastPackId = 0;
+            int removed = 0;
+            long reclaimed = 0;
+            List<StoragePack> page;
+            do {
+                page = storagePackMapper.selectPageByStatus(PackStatus.SEALED.getCode(), lastPackId, before, batchSize);
+                List<Path> oldPaths = new ArrayList<>();
+                for (StoragePack pack : page) {
+                    lastPackId = pack.getPackId();
+                    try {
+                        Path path = storageVolumes.packPath(pack.getVolumeId(), pack.getPackId());
+                        long size = Files.exists(path) ? Files.size(path) : 0;
+                        if (compactOne(pack)) {
+                            oldPaths.add(path);
+                            reclaimed += size;
+                        }
+                    } catch (IOException e) {
+                        log.error("压缩打包文件失败: packId={}", pack.getPackId(), e);
+                    }
+                }
+                if (!oldPaths.isEmpty()) {
+                    Thread.sleep(batchInterval);
+                    for (Path path : oldPaths) {
+                        Files.deleteIfExists(path);
+                    }
+                    removed += oldPaths.size();
+                }
+            } while (page.size() == batchSize);
+
+            log.info("打包文件压缩完成，删除旧打包文件 {} 个，释放 {}", removed, Funcs.formatFileSize(reclaimed));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("打包文件压缩异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 旧打包文件已不再被引用、可以删除时返回true
+     */
+    private boolean compactOne(StoragePack pack) throws IOException {
+        long packId = pack.getPackId();
+        Path path = storageVolumes.packPath(pack.getVolumeId(), packId);
+        long live = storageMapper.sumSizeByPackId(packId);
+        if (live > 0) {
+            long size = Files.exists(path) ? Files.size(path) : 0;
+            if (size == 0 || (double) (size - live) / size < garbageRatio) {
+                return false;
+            }
+            int moved = 0;
+            for (Storage storage : storageMapper.selectByPackId(packId)) {
+                PackStore.Location location = packStore.append(pack.getVolumeId(), storageVolumes.readAllBytes(storage));
+                // 期间被清理的行更新不到，新写入的内容成为垃圾，下次压缩时回收
+                moved += storageMapper.updatePackLocation(storage.getStorageId(), packId, location.packId(), location.offset());
+            }
+            log.info("打包文件已压缩: packId={}, 迁出 {} 个文件（{}），原大小 {}", packId, moved,
+                    Funcs.formatFileSize(live), Funcs.formatFileSize(size));
+            if (storageMapper.sumSizeByPackId(packId) > 0) {
+                return false;
+            }
+        }
+        storagePackMapper.deleteById(packId);
+        return true;
+    }
+
+    /**
+     * 写入节点异常退出时打包文件停留在写入中状态，长时间没有追加即视为已废弃
+     */
+    private void sealStalePacks() throws IOException {
+        LocalDateTime before = LocalDateTime.now().minusHours(staleHours);
+        Instant staleBefore = Instant.now().minus(Duration.ofHours(staleHours));
+        long lastPackId = 0;
+        List<StoragePack> page;
+        do {
+            page = storagePackMapper.selectPageByStatus(PackStatus.OPEN.getCode(), lastPackId, before, batchSize);
+            for (StoragePack pack : page) {
+                lastPackId = pack.getPackId();
+                Path path = storageVolumes.packPath(pack.getVolumeId(), pack.getPackId());
+                if (Files.exists(path) && !Files.getLastModifiedTime(path).toInstant().isBefore(staleBefore)) {
+                    continue;
+                }
+                if (storagePackMapper.updateStatus(pack.getPackId(), PackStatus.OPEN.getCode(), PackStatus.SEALED.getCode()) > 0) {
+                    log.warn("封存长时间未写入的打包文件: packId={}", pack.getPackId());
+                }
+            }
+        } while (page.size() == batchSize);
+    }
+
+}
@@ -0,0 +1,199 @@
+package top.orosirian.orodisk.utils.tasks;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.FileMapper;
+import top.orosirian.orodisk.mappers.UserMapper;
+import top.orosirian.orodisk.model.dto.UserUsage;
+import top.orosirian.orodisk.model.entity.User;
+import top.orosirian.orodisk.service.UserService;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.Funcs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 配额对账：按user_id游标分批扫描用户，每批一次分组求和算出真实占用，与used_quota不一致时修正数据库并清掉Redis缓存，
+ * 数据库一致但缓存的used与真实占用不符时同样清掉缓存，下次访问从数据库重新加载
+ * 修正前用单用户求和复核，更新带used_quota条件，期间有并发上传或删除时本次跳过，留给下一轮
+ */
+@Slf4j
+@Component
+public class QuotaReconcileTask {
+
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "quota-reconcile";
+
+    @Value("${disk.reconcile.batch-size:200}")
+    private int batchSize;
+
+    private final UserMapper userMapper;
+    private final FileMapper fileMapper;
+    private final UserService userService;
+    private final StringRedisTemplate redisTemplate;
+    private final ExecutorService executor;
+    private final int threads;
+
+    private final Counter fixedUsers;
+    private final DistributionSummary driftBytes;
+    private final Counter evictedCaches;
+    private final Timer runTimer;
+
+    public QuotaReconcileTask(UserMapper userMapper, FileMapper fileMapper, UserService userService,
+                              StringRedisTemplate redisTemplate, MeterRegistry meterRegistry,
+                              @Value("${disk.reconcile.threads:4}") int threads) {
+        this.userMapper = userMapper;
+        this.fileMapper = fileMapper;
+        this.userService = userService;
+        this.redisTemplate = redisTemplate;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("quota-reconcile-", 0).factory());
+        this.fixedUsers = Counter.builder("disk.quota.reconcile.fixed")
+                .description("Users whose used quota was corrected")
+                .register(meterRegistry);
+        this.driftBytes = DistributionSummary.builder("disk.quota.reconcile.drift")
+                .description("Absolute quota drift corrected per user")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.evictedCaches = Counter.builder("disk.quota.reconcile.cache.evicted")
+                .description("Quota caches evicted because the cached used quota drifted")
+                .register(meterRegistry);
+        this.runTimer = Timer.builder("disk.quota.reconcile.duration")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(cron = "${disk.reconcile.cron:0 0 4 * * ?}")
+    public void reconcile() {
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            log.info("配额对账正在其他节点执行，跳过");
+            return;
+        }
+        log.info("开始配额对账...");
+        try {
+            runTimer.record(this::reconcileAll);
+        } catch (Exception e) {
+            log.error("配额对账异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reconcileAll() {
+        long lastUserId = 0;
+        long fixed = 0;
+        long drift = 0;
+        List<Future<long[]>> inFlight = new ArrayList<>(threads);
+        List<User> page;
+        do {
+            page = userMapper.selectQuotaPage(lastUserId, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            lastUserId = page.getLast().getUserId();
+            List<User> batch = page;
+            inFlight.add(executor.submit(() -> reconcileBatch(batch)));
+            // 同时在途的批次不超过线程数，扫描不会把整张用户表堆进队列
+            if (inFlight.size() == threads) {
+                long[] result = collect(inFlight);
+                fixed += result[0];
+                drift += result[1];
+            }
+        } while (page.size() == batchSize);
+        long[] result = collect(inFlight);
+        fixed += result[0];
+        drift += result[1];
+        log.info("配额对账完成，修正 {} 个用户，累计偏差 {}", fixed, Funcs.formatFileSize(drift));
+    }
+
+    /**
+     * @return {修正的用户数, 修正的偏差字节数}
+     */
+    private long[] reconcileBatch(List<User> users) {
+        List<Long> userIds = users.stream().map(User::getUserId).toList();
+        Map<Long, Long> usage = fileMapper.sumFileSizeGroupByUserIds(userIds).stream()
+                .collect(Collectors.toMap(UserUsage::getUserId, UserUsage::getUsedSize));
+        Map<Long, User> byId = users.stream().collect(Collectors.toMap(User::getUserId, Function.identity()));
+
+        long fixed = 0;
+        long drift = 0;
+        for (Long userId : userIds) {
+            long recorded = Objects.requireNonNullElse(byId.get(userId).getUsedQuota(), 0L);
+            long actual = usage.getOrDefault(userId, 0L);
+            if (recorded != actual) {
+                long corrected = reconcileUser(userId, recorded);
+                if (corrected > 0) {
+                    fixed++;
+                    drift += corrected;
+                }
+            }
+            // 缓存的增量可能因进程中断等原因没有撤回，与数据库是否修正无关
+            Long cached = userService.getCachedUsedQuota(userId);
+            if (cached != null && cached != actual) {
+                userService.evictQuotaCache(userId);
+                evictedCaches.increment();
+                log.warn("配额缓存偏差已清除: userId={}, cached={}, actual={}", userId, cached, actual);
+            }
+        }
+        return new long[]{fixed, drift};
+    }
+
+    /**
+     * 单用户复核并按条件修正
+     *
+     * @return 修正的偏差字节数，未修正时返回0
+     */
+    private long reconcileUser(Long userId, long recorded) {
+        long actual = Objects.requireNonNullElse(fileMapper.sumFileSizeByUserId(userId, null), 0L);
+        if (actual == recorded || userMapper.fixUsedQuota(userId, recorded, actual) == 0) {
+            return 0;
+        }
+        userService.evictQuotaCache(userId);
+        long drift = Math.abs(actual - recorded);
+        fixedUsers.increment();
+        driftBytes.record(drift);
+        log.warn("配额偏差已修正: userId={}, recorded={}, actual={}", userId, recorded, actual);
+        return drift;
+    }
+
+    private long[] collect(List<Future<long[]>> futures) {
+        long[] total = new long[2];
+        for (Future<long[]> future : futures) {
+            try {
+                long[] result = future.get();
+                total[0] += result[0];
+                total[1] += result[1];
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("配额对账批次失败", e.getCause());
+            }
+        }
+        futures.clear();
+        return total;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
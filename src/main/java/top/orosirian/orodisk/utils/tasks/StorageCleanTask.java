@@ -1,57 +1,161 @@
 package top.orosirian.orodisk.utils.tasks;
 
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 import top.orosirian.orodisk.mappers.StorageMapper;
 import top.orosirian.orodisk.model.entity.Storage;
-import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.StorageVolumes;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
+/**
+ * 孤立存储清理：按storage_id游标分页，每页在一个事务里 FOR UPDATE 锁住仍为孤立的行并按条件批量删除，
+ * 提交后再并行删除物理文件，删除前在上传使用的MD5锁下复核路径没有被新上传的相同内容引用。
+ * 秒传复活记录时incrementRefCount会被行锁挡住，行删除后返回0由调用方重试
+ */
 @Slf4j
 @Component
 public class StorageCleanTask {
 
-    @Value("${disk.storage.base-path}")
-    private String basePath;
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "storage-clean";
+
+    private static final long LOCK_RETRY_INTERVAL = 200;
+    private static final int LOCK_RETRY_COUNT = 5;
+
+    @Value("${disk.clean.batch-size:500}")
+    private int batchSize;
 
     private final StorageMapper storageMapper;
-    public StorageCleanTask(StorageMapper storageMapper) {
+    private final StringRedisTemplate redisTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final StorageVolumes storageVolumes;
+    private final ExecutorService executor;
+
+    public StorageCleanTask(StorageMapper storageMapper, StringRedisTemplate redisTemplate, TransactionTemplate transactionTemplate,
+                            StorageVolumes storageVolumes, @Value("${disk.clean.io-concurrency:4}") int ioConcurrency) {
         this.storageMapper = storageMapper;
+        this.redisTemplate = redisTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.storageVolumes = storageVolumes;
+        this.executor = Executors.newFixedThreadPool(ioConcurrency, Thread.ofPlatform().name("storage-clean-", 0).factory());
     }
 
     @Scheduled(cron = "${disk.clean.cron}")
     public void cleanOrphanStorage() {
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            log.info("孤立存储清理正在其他节点执行，跳过");
+            return;
+        }
         log.info("开始清理孤立存储文件...");
 
         try {
-            List<Storage> orphanStorages = storageMapper.selectByRefCountZero();
+            long lastStorageId = 0;
             int cleanedCount = 0;
-
-            for (Storage storage : orphanStorages) {
-                try {
-                    File physicalFile = new File(basePath, storage.getStoragePath());
-                    if (physicalFile.exists()) {
-                        Funcs.deleteFile(physicalFile);
-                        log.info("删除物理文件: {}", storage.getStoragePath());
-                    }
-
-                    storageMapper.deleteById(storage.getStorageId());
-                    cleanedCount++;
-
-                } catch (Exception e) {
-                    log.error("清理存储失败: storageId={}", storage.getStorageId(), e);
+            List<Storage> page;
+            do {
+                page = storageMapper.selectOrphanPage(lastStorageId, batchSize);
+                if (page.isEmpty()) {
+                    break;
                 }
-            }
+                lastStorageId = page.getLast().getStorageId();
+                cleanedCount += cleanBatch(page.stream().map(Storage::getStorageId).toList());
+            } while (page.size() == batchSize);
 
             log.info("清理孤立存储文件完成，共清理 {} 个", cleanedCount);
 
         } catch (Exception e) {
             log.error("清理孤立存储文件异常", e);
+        } finally {
+            lock.unlock();
         }
     }
 
+    private int cleanBatch(List<Long> storageIds) {
+        List<Storage> deleted = transactionTemplate.execute(_ -> {
+            List<Storage> locked = storageMapper.lockOrphansByIds(storageIds);
+            if (locked.isEmpty()) {
+                return locked;
+            }
+            storageMapper.deleteOrphansByIds(locked.stream().map(Storage::getStorageId).toList());
+            return locked;
+        });
+        if (deleted == null || deleted.isEmpty()) {
+            return 0;
+        }
+
+        // 打包存放的内容由打包文件压缩任务回收；行删除后同一内容可能已被重新上传到同一卷的相同路径，仍被引用的路径不能删
+        List<Storage> standalone = deleted.stream().filter(storage -> storage.getPackId() == null).toList();
+        Map<Integer, Set<String>> referenced = new HashMap<>();
+        standalone.stream().collect(Collectors.groupingBy(Storage::getVolumeId, Collectors.mapping(Storage::getStoragePath, Collectors.toList())))
+                .forEach((volumeId, paths) -> referenced.put(volumeId, new HashSet<>(storageMapper.selectExistingPaths(volumeId, paths))));
+
+        List<Future<?>> futures = new ArrayList<>(standalone.size());
+        for (Storage storage : standalone) {
+            if (referenced.get(storage.getVolumeId()).contains(storage.getStoragePath())) {
+                continue;
+            }
+            futures.add(executor.submit(() -> deleteUnreferenced(storage)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("删除物理文件异常", e.getCause());
+            }
+        }
+        log.info("已清理一批孤立存储: {} 个", deleted.size());
+        return deleted.size();
+    }
+
+    /**
+     * 上面的批量查询之后，相同内容的上传仍可能落库并rename到同一路径；持有与上传相同的MD5锁复核后再删除，
+     * 上传在持锁期间完成落库，复核时要么看到新行，要么上传尚未开始写入该路径
+     */
+    private void deleteUnreferenced(Storage storage) {
+        DistributedLock md5Lock = new DistributedLock(redisTemplate, Constant.UPLOAD_LOCK_PREFIX + storage.getMd5(), Constant.LOCK_LEASE_TIME);
+        // 拿不到锁说明相同内容正在上传，文件会被上传覆盖并引用，或在上传失败时由上传方删除
+        if (!md5Lock.tryLock(LOCK_RETRY_INTERVAL, LOCK_RETRY_COUNT)) {
+            log.info("相同内容正在上传，跳过删除物理文件: {}", storage.getStoragePath());
+            return;
+        }
+        try {
+            if (!storageMapper.selectExistingPaths(storage.getVolumeId(), List.of(storage.getStoragePath())).isEmpty()) {
+                return;
+            }
+            File physicalFile = storageVolumes.resolveFile(storage);
+            if (physicalFile.exists() && !physicalFile.delete()) {
+                log.warn("删除物理文件失败: {}", storage.getStoragePath());
+            }
+        } finally {
+            md5Lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
 }
@@ -0,0 +1,154 @@
+package top.orosirian.orodisk.utils.tasks;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.StorageLayout;
+import top.orosirian.orodisk.utils.StorageVolumes;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 存储布局在线迁移：按storage_id游标分批，把旧路径硬链接到hash布局的新路径，条件更新storage_path后，
+ * 间隔一个批次再删除旧路径，让更新前已解析出旧路径的读请求仍能打开文件。游标记在Redis中，可中断续跑
+ */
+@Slf4j
+@Component
+public class StorageMigrationTask {
+
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "storage-migration";
+
+    @Value("${disk.storage.migration.enabled:false}")
+    private boolean enabled;
+
+    @Value("${disk.storage.migration.batch-size:100}")
+    private int batchSize;
+
+    @Value("${disk.storage.migration.batch-interval:200}")
+    private long batchInterval;
+
+    private final StorageMapper storageMapper;
+    private final StorageLayout storageLayout;
+    private final StorageVolumes storageVolumes;
+    private final StringRedisTemplate redisTemplate;
+
+    public StorageMigrationTask(StorageMapper storageMapper, StorageLayout storageLayout, StorageVolumes storageVolumes,
+                                StringRedisTemplate redisTemplate) {
+        this.storageMapper = storageMapper;
+        this.storageLayout = storageLayout;
+        this.storageVolumes = storageVolumes;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Scheduled(fixedDelayString = "${disk.storage.migration.check-interval:60000}")
+    public void migrate() {
+        if (!enabled || !storageLayout.isHashLayout()) {
+            return;
+        }
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            String cursor = redisTemplate.opsForValue().get(Constant.STORAGE_MIGRATION_CURSOR);
+            long lastStorageId = cursor == null ? 0 : Long.parseLong(cursor);
+            // 留出余量，避免锁租约到期后与其他节点重叠
+            long deadline = System.currentTimeMillis() + (Constant.TASK_LOCK_LEASE_TIME - 60) * 1000;
+            int migrated = 0;
+            while (System.currentTimeMillis() < deadline) {
+                List<Storage> page = storageMapper.selectPage(lastStorageId, batchSize);
+                if (page.isEmpty()) {
+                    if (migrated > 0) {
+                        log.info("存储布局迁移已完成");
+                    }
+                    break;
+                }
+                List<Path> oldPaths = new ArrayList<>();
+                for (Storage storage : page) {
+                    try {
+                        Path oldPath = migrateOne(storage);
+                        if (oldPath != null) {
+                            oldPaths.add(oldPath);
+                        }
+                    } catch (IOException e) {
+                        log.error("迁移存储文件失败: storageId={}, path={}", storage.getStorageId(), storage.getStoragePath(), e);
+                    }
+                }
+                lastStorageId = page.getLast().getStorageId();
+                redisTemplate.opsForValue().set(Constant.STORAGE_MIGRATION_CURSOR, String.valueOf(lastStorageId));
+                migrated += oldPaths.size();
+
+                Thread.sleep(batchInterval);
+                for (Path oldPath : oldPaths) {
+                    Files.deleteIfExists(oldPath);
+                }
+            }
+            if (migrated > 0) {
+                log.info("本轮迁移存储文件 {} 个，游标 {}", migrated, lastStorageId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("存储布局迁移异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 迁移成功后待删除的旧路径；无需迁移或未迁移时返回null
+     */
+    private Path migrateOne(Storage storage) throws IOException {
+        // 打包存放的内容没有独立路径
+        if (storage.getPackId() != null) {
+            return null;
+        }
+        String oldPath = storage.getStoragePath();
+        String newPath = storageLayout.hashPath(storage.getMd5(), Funcs.getExtension(oldPath));
+        if (newPath.equals(oldPath)) {
+            return null;
+        }
+        Path root = storageVolumes.root(storage.getVolumeId());
+        Path source = root.resolve(oldPath);
+        Path target = root.resolve(newPath);
+        if (!Files.exists(source)) {
+            log.warn("存储文件不存在，跳过迁移: storageId={}, path={}", storage.getStorageId(), oldPath);
+            return null;
+        }
+
+        Files.createDirectories(target.getParent());
+        boolean created = true;
+        try {
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException e) {
+            // 上次中断留下的链接，MD5相同即内容相同
+            created = false;
+        }
+        // 硬链接沿用旧文件的修改时间，刷新后对账任务的宽限期从迁移时刻算起，不会把尚未落库的新路径当成孤立文件
+        Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+
+        if (storageMapper.updatePath(storage.getStorageId(), storage.getVolumeId(), oldPath, newPath) == 0) {
+            // 期间记录被删除或已被改动，撤回本次创建的链接
+            if (created) {
+                Files.deleteIfExists(target);
+            }
+            return null;
+        }
+        return source;
+    }
+
+}
@@ -0,0 +1,293 @@
+package top.orosirian.orodisk.utils.tasks;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.StorageLayout;
+import top.orosirian.orodisk.utils.StorageVolumes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 存储目录与storage表对账：上传在移动文件后、落库前中断会留下无人引用的物理文件
+ * 按日期目录并行遍历，分批用storage_path反查，超过宽限期仍未被引用的文件移入隔离区或直接删除
+ * 日期目录只在当天写入，宽限期过后内容不再变化，检查点记在Redis中，之后只扫描更新的目录
+ * hash布局的前缀目录会持续写入，没有封存的概念，每轮按游标轮转扫描一部分一级前缀
+ * 每个存储卷单独对账，检查点和游标按卷记录（0号卷沿用原来的key）
+ */
+@Slf4j
+@Component
+public class StorageReconcileTask {
+
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "storage-reconcile";
+    private static final String QUARANTINE_DIR = ".quarantine";
+    private static final DateTimeFormatter DATE_DIR = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    private static final Pattern HASH_PREFIX = Pattern.compile("[0-9a-f]{2}");
+
+    @Value("${disk.reconcile.batch-size:200}")
+    private int batchSize;
+
+    @Value("${disk.reconcile.storage-action:quarantine}")
+    private String action;
+
+    @Value("${disk.reconcile.grace-hours:24}")
+    private long graceHours;
+
+    @Value("${disk.reconcile.quarantine-days:7}")
+    private long quarantineDays;
+
+    @Value("${disk.reconcile.hash-prefixes-per-run:16}")
+    private int hashPrefixesPerRun;
+
+    private final StorageMapper storageMapper;
+    private final StringRedisTemplate redisTemplate;
+    private final StorageLayout storageLayout;
+    private final StorageVolumes storageVolumes;
+    private final ExecutorService executor;
+
+    public StorageReconcileTask(StorageMapper storageMapper, StringRedisTemplate redisTemplate, StorageLayout storageLayout,
+                                StorageVolumes storageVolumes, @Value("${disk.clean.io-concurrency:4}") int ioConcurrency) {
+        this.storageMapper = storageMapper;
+        this.redisTemplate = redisTemplate;
+        this.storageLayout = storageLayout;
+        this.storageVolumes = storageVolumes;
+        this.executor = Executors.newFixedThreadPool(ioConcurrency, Thread.ofPlatform().name("storage-reconcile-", 0).factory());
+    }
+
+    @Scheduled(cron = "${disk.reconcile.storage-cron:0 30 4 * * ?}")
+    public void reconcile() {
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            log.info("存储对账正在其他节点执行，跳过");
+            return;
+        }
+        log.info("开始存储对账...");
+        try {
+            for (StorageVolumes.Volume volume : storageVolumes.all()) {
+                reconcileVolume(volume.getId(), volume.getRoot());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("存储对账异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reconcileVolume(int volumeId, Path root) throws IOException, InterruptedException {
+        String checkpointKey = volumeKey(Constant.STORAGE_RECONCILE_CHECKPOINT, volumeId);
+        String checkpoint = redisTemplate.opsForValue().get(checkpointKey);
+        LocalDate after = checkpoint == null ? LocalDate.MIN : LocalDate.parse(checkpoint, DATE_DIR);
+        Instant graceBefore = Instant.now().minus(Duration.ofHours(graceHours));
+
+        List<LocalDate> dates = listDateDirs(root).stream().filter(date -> date.isAfter(after)).sorted().toList();
+        List<Future<long[]>> futures = new ArrayList<>(dates.size());
+        for (LocalDate date : dates) {
+            futures.add(executor.submit(() -> reconcileDir(volumeId, root, root.resolve(date.format(DATE_DIR)), 1, graceBefore)));
+        }
+
+        long leaked = 0;
+        long leakedBytes = 0;
+        LocalDate completed = after;
+        boolean contiguous = true;
+        // 宽限期覆盖整天后目录才算封存，只有连续成功的封存目录才推进检查点
+        LocalDate sealed = LocalDate.now().minusDays(Math.ceilDiv(graceHours, 24) + 1);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                long[] result = futures.get(i).get();
+                leaked += result[0];
+                leakedBytes += result[1];
+                if (contiguous && !dates.get(i).isAfter(sealed)) {
+                    completed = dates.get(i);
+                }
+            } catch (ExecutionException e) {
+                contiguous = false;
+                log.error("存储对账失败: volume={}, dir={}", volumeId, dates.get(i).format(DATE_DIR), e.getCause());
+            }
+        }
+        if (!completed.equals(after)) {
+            redisTemplate.opsForValue().set(checkpointKey, completed.format(DATE_DIR));
+        }
+        long[] hashResult = reconcileHashPrefixes(volumeId, root, graceBefore);
+        leaked += hashResult[0];
+        leakedBytes += hashResult[1];
+        purgeQuarantine(root);
+        log.info("存储卷 {} 对账完成，扫描 {} 个日期目录，处理泄漏文件 {} 个（{}），检查点 {}", volumeId,
+                dates.size(), leaked, Funcs.formatFileSize(leakedBytes), completed.equals(LocalDate.MIN) ? "-" : completed.format(DATE_DIR));
+    }
+
+    /**
+     * @return {泄漏文件数, 字节数}
+     */
+    private long[] reconcileDir(int volumeId, Path root, Path dir, int maxDepth, Instant graceBefore) throws IOException {
+        long[] result = new long[2];
+        List<Path> batch = new ArrayList<>(batchSize);
+        try (Stream<Path> files = Files.walk(dir, maxDepth)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                batch.add(file);
+                if (batch.size() == batchSize) {
+                    handleBatch(volumeId, root, batch, graceBefore, result);
+                    batch.clear();
+                }
+            }
+        }
+        handleBatch(volumeId, root, batch, graceBefore, result);
+        return result;
+    }
+
+    private void handleBatch(int volumeId, Path root, List<Path> files, Instant graceBefore, long[] result) throws IOException {
+        if (files.isEmpty()) {
+            return;
+        }
+        List<String> paths = files.stream().map(file -> root.relativize(file).toString()).toList();
+        Set<String> referenced = new HashSet<>(storageMapper.selectExistingPaths(volumeId, paths));
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String storagePath = paths.get(i);
+            if (referenced.contains(storagePath)) {
+                continue;
+            }
+            // 刚移动到位、事务还未提交的文件同样没有记录，宽限期内不处理
+            if (!Files.getLastModifiedTime(file).toInstant().isBefore(graceBefore)) {
+                continue;
+            }
+            long size = Files.size(file);
+            if ("delete".equals(action)) {
+                Files.deleteIfExists(file);
+            } else {
+                Path target = root.resolve(QUARANTINE_DIR).resolve(storagePath);
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                // 保留期从隔离时刻算起
+                Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+            }
+            result[0]++;
+            result[1] += size;
+            log.warn("发现未被引用的存储文件: volume={}, path={}, action={}", volumeId, storagePath, action);
+        }
+    }
+
+    /**
+     * 从上次的游标之后取若干个一级前缀目录并行扫描，到末尾后回到开头
+     */
+    private long[] reconcileHashPrefixes(int volumeId, Path root, Instant graceBefore) throws IOException, InterruptedException {
+        List<String> prefixes = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return new long[2];
+        }
+        try (Stream<Path> dirs = Files.list(root)) {
+            dirs.filter(Files::isDirectory)
+                    .map(dir -> dir.getFileName().toString())
+                    .filter(name -> HASH_PREFIX.matcher(name).matches())
+                    .sorted()
+                    .forEach(prefixes::add);
+        }
+        long[] total = new long[2];
+        if (prefixes.isEmpty()) {
+            return total;
+        }
+        String cursorKey = volumeKey(Constant.STORAGE_RECONCILE_HASH_CURSOR, volumeId);
+        String cursor = redisTemplate.opsForValue().get(cursorKey);
+        int start = 0;
+        if (cursor != null) {
+            while (start < prefixes.size() && prefixes.get(start).compareTo(cursor) <= 0) {
+                start++;
+            }
+        }
+        int count = Math.min(hashPrefixesPerRun, prefixes.size());
+        List<String> selected = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            selected.add(prefixes.get((start + i) % prefixes.size()));
+        }
+
+        int depth = storageLayout.getHashLevels();
+        List<Future<long[]>> futures = new ArrayList<>(selected.size());
+        for (String prefix : selected) {
+            futures.add(executor.submit(() -> reconcileDir(volumeId, root, root.resolve(prefix), depth, graceBefore)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                long[] result = futures.get(i).get();
+                total[0] += result[0];
+                total[1] += result[1];
+            } catch (ExecutionException e) {
+                log.error("存储对账失败: volume={}, prefix={}", volumeId, selected.get(i), e.getCause());
+            }
+        }
+        redisTemplate.opsForValue().set(cursorKey, selected.getLast());
+        return total;
+    }
+
+    private void purgeQuarantine(Path root) throws IOException {
+        Path quarantine = root.resolve(QUARANTINE_DIR);
+        if (!Files.isDirectory(quarantine)) {
+            return;
+        }
+        Instant expireBefore = Instant.now().minus(Duration.ofDays(quarantineDays));
+        try (Stream<Path> files = Files.walk(quarantine)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(expireBefore)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private List<LocalDate> listDateDirs(Path root) throws IOException {
+        List<LocalDate> dates = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return dates;
+        }
+        try (Stream<Path> dirs = Files.walk(root, 3)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                Path relative = root.relativize(dir);
+                if (relative.getNameCount() != 3 || relative.getName(0).toString().startsWith(".")) {
+                    continue;
+                }
+                try {
+                    dates.add(LocalDate.parse(relative.toString().replace(relative.getFileSystem().getSeparator(), "/"), DATE_DIR));
+                } catch (DateTimeParseException _) {
+                    // 非日期目录，忽略
+                }
+            }
+        }
+        return dates;
+    }
+
+    private String volumeKey(String key, int volumeId) {
+        return volumeId == StorageVolumes.DEFAULT_VOLUME ? key : key + ":" + volumeId;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,195 @@
+package top.orosirian.orodisk.utils.tasks;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.StorageMover;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.enums.StorageTier;
+import top.orosirian.orodisk.utils.exceptions.BusinessException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 冷热分层：按StorageAccessTracker写回的访问统计在各层之间迁移独立存放的文件
+ * 下沉：热层中超过demote-after-days未被访问的文件迁到冷层（没有冷层时迁到普通层）；热层超过高水位时按最久未访问继续迁出
+ * 提升：其他层中最近promote-recent-days内有访问、且活跃窗口内访问次数达到promote-min-count的文件，按访问次数从高到低迁入热层
+ * 迁移由StorageMover完成，源文件间隔一个批次再删除；每轮迁移量有上限
+ */
+@Slf4j
+@Component
+public class StorageTierTask {
+
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "storage-tier";
+
+    @Value("${disk.storage.tier.enabled:false}")
+    private boolean enabled;
+
+    @Value("${disk.storage.tier.promote-min-count:5}")
+    private int promoteMinCount;
+
+    @Value("${disk.storage.tier.promote-recent-days:1}")
+    private long promoteRecentDays;
+
+    @Value("${disk.storage.tier.demote-after-days:30}")
+    private long demoteAfterDays;
+
+    @Value("${disk.storage.tier.high-watermark:0.9}")
+    private double highWatermark;
+
+    @Value("${disk.storage.tier.batch-size:100}")
+    private int batchSize;
+
+    @Value("${disk.storage.tier.batch-interval:200}")
+    private long batchInterval;
+
+    @Value("${disk.storage.tier.max-bytes-per-run:10737418240}")
+    private long maxBytesPerRun;
+
+    private final StorageMapper storageMapper;
+    private final StorageVolumes storageVolumes;
+    private final StorageMover storageMover;
+    private final StringRedisTemplate redisTemplate;
+
+    public StorageTierTask(StorageMapper storageMapper, StorageVolumes storageVolumes, StorageMover storageMover,
+                           StringRedisTemplate redisTemplate) {
+        this.storageMapper = storageMapper;
+        this.storageVolumes = storageVolumes;
+        this.storageMover = storageMover;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Scheduled(cron = "${disk.storage.tier.cron:0 0 3 * * ?}")
+    public void rebalanceTiers() {
+        if (!enabled || !storageVolumes.hasTier(StorageTier.HOT)) {
+            return;
+        }
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            log.info("存储分层迁移正在其他节点执行，跳过");
+            return;
+        }
+        log.info("开始存储分层迁移...");
+        try {
+            // 留出余量，避免锁租约到期后与其他节点重叠
+            long deadline = System.currentTimeMillis() + (Constant.TASK_LOCK_LEASE_TIME - 60) * 1000;
+            Budget budget = new Budget(maxBytesPerRun, deadline);
+            StorageTier coldTier = storageVolumes.hasTier(StorageTier.COLD) ? StorageTier.COLD : StorageTier.STANDARD;
+            // 先下沉腾出热层空间，再提升
+            int demoted = 0;
+            if (storageVolumes.hasTier(coldTier)) {
+                for (StorageVolumes.Volume volume : storageVolumes.all()) {
+                    if (volume.getTier() == StorageTier.HOT) {
+                        demoted += demote(volume, coldTier, budget);
+                    }
+                }
+            }
+            int promoted = promote(budget);
+            log.info("存储分层迁移完成，下沉 {} 个，提升 {} 个，共迁移 {}", demoted, promoted,
+                    Funcs.formatFileSize(maxBytesPerRun - budget.bytes));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("存储分层迁移异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int demote(StorageVolumes.Volume volume, StorageTier target, Budget budget) throws InterruptedException, IOException {
+        LocalDateTime idleBefore = LocalDateTime.now().minusDays(demoteAfterDays);
+        int demoted = 0;
+        while (budget.remains()) {
+            // 超过水位时不再要求闲置时长，按最久未访问迁出
+            boolean over = storageVolumes.usage(volume) > highWatermark;
+            List<Storage> page = storageMapper.selectColdCandidates(volume.getId(), over ? LocalDateTime.now() : idleBefore, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            int moved = moveBatch(page, target, budget);
+            demoted += moved;
+            if (moved == 0 || page.size() < batchSize) {
+                break;
+            }
+        }
+        return demoted;
+    }
+
+    private int promote(Budget budget) throws InterruptedException, IOException {
+        List<Integer> sources = storageVolumes.all().stream()
+                .filter(volume -> volume.getTier() != StorageTier.HOT)
+                .map(StorageVolumes.Volume::getId)
+                .toList();
+        if (sources.isEmpty() || !budget.remains()) {
+            return 0;
+        }
+        LocalDateTime after = LocalDateTime.now().minusDays(promoteRecentDays);
+        List<Storage> candidates = storageMapper.selectHotCandidates(sources, after, promoteMinCount, batchSize);
+        return moveBatch(candidates, StorageTier.HOT, budget);
+    }
+
+    /**
+     * @return 迁移成功的文件数
+     */
+    private int moveBatch(List<Storage> page, StorageTier target, Budget budget) throws InterruptedException, IOException {
+        List<Path> oldPaths = new ArrayList<>();
+        for (Storage storage : page) {
+            if (!budget.remains()) {
+                break;
+            }
+            try (StorageVolumes.Placement placement = storageVolumes.place(StorageVolumes.storedLength(storage), target)) {
+                // 热层只迁入到高水位为止
+                if (target == StorageTier.HOT
+                        && storageVolumes.usage(storageVolumes.volume(placement.getVolumeId())) > highWatermark) {
+                    break;
+                }
+                Path oldPath = storageMover.move(storage, placement);
+                if (oldPath != null) {
+                    oldPaths.add(oldPath);
+                    budget.bytes -= StorageVolumes.storedLength(storage);
+                }
+            } catch (BusinessException e) {
+                log.warn("存储层 {} 已无足够空间，停止迁移", target);
+                break;
+            } catch (IOException e) {
+                log.error("迁移存储文件失败: storageId={}, target={}", storage.getStorageId(), target, e);
+            }
+        }
+        if (!oldPaths.isEmpty()) {
+            Thread.sleep(batchInterval);
+            for (Path oldPath : oldPaths) {
+                Files.deleteIfExists(oldPath);
+            }
+        }
+        return oldPaths.size();
+    }
+
+    private static final class Budget {
+
+        private long bytes;
+        private final long deadline;
+
+        private Budget(long bytes, long deadline) {
+            this.bytes = bytes;
+            this.deadline = deadline;
+        }
+
+        private boolean remains() {
+            return bytes > 0 && System.currentTimeMillis() < deadline;
+        }
+
+    }
+
+}
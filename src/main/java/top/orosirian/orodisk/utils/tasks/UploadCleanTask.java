@@ -0,0 +1,260 @@
+package top.orosirian.orodisk.utils.tasks;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.FileChunkMapper;
+import top.orosirian.orodisk.mappers.UploadSessionMapper;
+import top.orosirian.orodisk.model.entity.UploadSession;
+import top.orosirian.orodisk.service.UploadSessionService;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.UploadDigestTracker;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 清理未完成的上传：各存储卷上会话已过期的分片文件、中断的流式上传暂存文件、旧版temp目录下的分片及file_chunk记录
+ * 删除在有界线程池中并行执行，按批提交，集群内同一时刻只有一个节点执行
+ */
+@Slf4j
+@Component
+public class UploadCleanTask {
+
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "upload-clean";
+
+    @Value("${disk.storage.temp-path}")
+    private String tempPath;
+
+    @Value("${disk.clean.upload-expire-hours:24}")
+    private long expireHours;
+
+    @Value("${disk.clean.batch-size:500}")
+    private int batchSize;
+
+    private final FileChunkMapper fileChunkMapper;
+    private final UploadSessionMapper uploadSessionMapper;
+    private final UploadSessionService uploadSessionService;
+    private final UploadDigestTracker uploadDigestTracker;
+    private final StorageVolumes storageVolumes;
+    private final StringRedisTemplate redisTemplate;
+    private final ExecutorService executor;
+
+    public UploadCleanTask(FileChunkMapper fileChunkMapper, UploadSessionMapper uploadSessionMapper, UploadSessionService uploadSessionService,
+                           UploadDigestTracker uploadDigestTracker, StorageVolumes storageVolumes, StringRedisTemplate redisTemplate,
+                           @Value("${disk.clean.io-concurrency:4}") int ioConcurrency) {
+        this.fileChunkMapper = fileChunkMapper;
+        this.uploadSessionMapper = uploadSessionMapper;
+        this.uploadSessionService = uploadSessionService;
+        this.uploadDigestTracker = uploadDigestTracker;
+        this.storageVolumes = storageVolumes;
+        this.redisTemplate = redisTemplate;
+        this.executor = Executors.newFixedThreadPool(ioConcurrency, Thread.ofPlatform().name("upload-clean-", 0).factory());
+    }
+
+    @Scheduled(cron = "${disk.clean.upload-cron:0 30 * * * ?}")
+    public void cleanAbandonedUploads() {
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            log.info("未完成上传清理正在其他节点执行，跳过");
+            return;
+        }
+        log.info("开始清理未完成的上传...");
+        try {
+            Instant expireBefore = Instant.now().minus(Duration.ofHours(expireHours));
+            AtomicLong reclaimed = new AtomicLong();
+            int cleaned = 0;
+            cleaned += releaseExpiredSessions(expireBefore);
+            for (StorageVolumes.Volume volume : storageVolumes.all()) {
+                cleaned += cleanStagingChunks(volume.getId(), expireBefore, reclaimed);
+                cleaned += cleanStagingStreams(volume.getId(), expireBefore, reclaimed);
+            }
+            cleaned += cleanLegacyChunks(expireBefore, reclaimed);
+            log.info("未完成上传清理完成，共清理 {} 项，回收 {}", cleaned, Funcs.formatFileSize(reclaimed.get()));
+        } catch (Exception e) {
+            log.error("未完成上传清理异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 释放Redis会话已过期的上传会话所预占的配额，按session_id游标分批扫描
+     */
+    private int releaseExpiredSessions(Instant expireBefore) {
+        LocalDateTime before = LocalDateTime.ofInstant(expireBefore, ZoneId.systemDefault());
+        int released = 0;
+        long lastSessionId = 0;
+        List<UploadSession> sessions;
+        do {
+            sessions = uploadSessionMapper.selectCreatedBefore(lastSessionId, before, batchSize);
+            for (UploadSession session : sessions) {
+                lastSessionId = session.getSessionId();
+                if (uploadSessionService.isAttached(session.getUserId(), session.getFileIdentifier())) {
+                    continue;
+                }
+                try {
+                    uploadSessionService.expire(session);
+                    released++;
+                } catch (Exception e) {
+                    log.error("释放过期上传会话失败: sessionId={}", session.getSessionId(), e);
+                }
+            }
+        } while (sessions.size() == batchSize);
+        return released;
+    }
+
+    /**
+     * 分片文件：Redis会话已过期（位图不存在）且长时间未写入
+     */
+    private int cleanStagingChunks(int volumeId, Instant expireBefore, AtomicLong reclaimed) throws IOException {
+        Path chunkDir = uploadSessionService.partDir(volumeId);
+        return sweepDirectory(chunkDir, path -> {
+            String name = path.getFileName().toString();
+            if (!name.endsWith(".part") || !isExpired(path, expireBefore)) {
+                return false;
+            }
+            String uploadKey = name.substring(0, name.length() - ".part".length());
+            if (uploadSessionService.exists(uploadKey)) {
+                return false;
+            }
+            uploadDigestTracker.discard(uploadKey);
+            return true;
+        }, reclaimed);
+    }
+
+    /**
+     * 流式上传的暂存文件正常情况下请求结束即删除，残留的只可能来自进程中断
+     */
+    private int cleanStagingStreams(int volumeId, Instant expireBefore, AtomicLong reclaimed) throws IOException {
+        Path stagingDir = storageVolumes.stagingDir(volumeId);
+        return sweepDirectory(stagingDir, path -> Files.isRegularFile(path) && isExpired(path, expireBefore), reclaimed);
+    }
+
+    /**
+     * 旧版上传把分片放在temp/chunks/<identifier>下并逐片写入file_chunk，按记录的最后写入时间成批清理
+     */
+    private int cleanLegacyChunks(Instant expireBefore, AtomicLong reclaimed) throws IOException {
+        LocalDateTime before = LocalDateTime.ofInstant(expireBefore, ZoneId.systemDefault());
+        int cleaned = 0;
+        List<String> identifiers;
+        do {
+            identifiers = fileChunkMapper.selectStaleIdentifiers(before, batchSize);
+            if (identifiers.isEmpty()) {
+                break;
+            }
+            List<Path> dirs = identifiers.stream().map(id -> Paths.get(tempPath, "chunks", id)).toList();
+            deleteAll(dirs, reclaimed);
+            fileChunkMapper.deleteByIdentifiers(identifiers);
+            cleaned += identifiers.size();
+        } while (identifiers.size() == batchSize);
+
+        // 没有记录对应的孤立目录
+        cleaned += sweepDirectory(Paths.get(tempPath, "chunks"), path -> isExpired(path, expireBefore), reclaimed);
+        cleaned += sweepDirectory(Paths.get(tempPath), path -> Files.isRegularFile(path) && isExpired(path, expireBefore), reclaimed);
+        return cleaned;
+    }
+
+    private int sweepDirectory(Path dir, StalePredicate stale, AtomicLong reclaimed) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        int cleaned = 0;
+        List<Path> batch = new ArrayList<>(batchSize);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (!stale.test(entry)) {
+                    continue;
+                }
+                batch.add(entry);
+                if (batch.size() == batchSize) {
+                    cleaned += deleteAll(batch, reclaimed);
+                    batch.clear();
+                }
+            }
+        }
+        cleaned += deleteAll(batch, reclaimed);
+        return cleaned;
+    }
+
+    private int deleteAll(List<Path> paths, AtomicLong reclaimed) {
+        List<Future<Long>> futures = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            futures.add(executor.submit(() -> deleteRecursively(path)));
+        }
+        int deleted = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                long bytes = futures.get(i).get();
+                if (bytes >= 0) {
+                    reclaimed.addAndGet(bytes);
+                    deleted++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return deleted;
+            } catch (ExecutionException e) {
+                log.error("删除未完成上传失败: {}", paths.get(i), e.getCause());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return 回收的字节数，路径不存在时返回-1
+     */
+    private long deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        long bytes = 0;
+        try (Stream<Path> walk = Files.walk(path)) {
+            List<Path> entries = walk.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList();
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry)) {
+                    bytes += Files.size(entry);
+                }
+                Files.deleteIfExists(entry);
+            }
+        }
+        return bytes;
+    }
+
+    private boolean isExpired(Path path, Instant expireBefore) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        return modified.toInstant().isBefore(expireBefore);
+    }
+
+    @FunctionalInterface
+    private interface StalePredicate {
+        boolean test(Path path) throws IOException;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,160 @@
+package top.orosirian.orodisk.utils.tasks;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.utils.Constant;
+import top.orosirian.orodisk.utils.DistributedLock;
+import top.orosirian.orodisk.utils.Funcs;
+import top.orosirian.orodisk.utils.StorageMover;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.exceptions.BusinessException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 存储卷再平衡：已用空间超过高水位的卷，按storage_id从小到大（最早写入、通常也最少访问）把文件迁到同层空闲的卷上
+ * 跨层的迁移由StorageTierTask按访问情况决定
+ * 迁移由StorageMover完成，源文件间隔一个批次再删除，与布局迁移的做法一致
+ * 每轮迁移量有上限，避免占满磁盘带宽影响正常读写；游标按卷记在Redis中，可中断续跑
+ */
+@Slf4j
+@Component
+public class VolumeRebalanceTask {
+
+    private static final String LOCK_KEY = Constant.TASK_LOCK_PREFIX + "storage-rebalance";
+
+    @Value("${disk.storage.rebalance.enabled:false}")
+    private boolean enabled;
+
+    @Value("${disk.storage.rebalance.high-watermark:0.85}")
+    private double highWatermark;
+
+    @Value("${disk.storage.rebalance.batch-size:50}")
+    private int batchSize;
+
+    @Value("${disk.storage.rebalance.batch-interval:200}")
+    private long batchInterval;
+
+    @Value("${disk.storage.rebalance.max-bytes-per-run:10737418240}")
+    private long maxBytesPerRun;
+
+    private final StorageMapper storageMapper;
+    private final StorageVolumes storageVolumes;
+    private final StorageMover storageMover;
+    private final StringRedisTemplate redisTemplate;
+
+    public VolumeRebalanceTask(StorageMapper storageMapper, StorageVolumes storageVolumes, StorageMover storageMover,
+                               StringRedisTemplate redisTemplate) {
+        this.storageMapper = storageMapper;
+        this.storageVolumes = storageVolumes;
+        this.storageMover = storageMover;
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Scheduled(fixedDelayString = "${disk.storage.rebalance.check-interval:600000}")
+    public void rebalance() {
+        if (!enabled || storageVolumes.all().size() < 2) {
+            return;
+        }
+        DistributedLock lock = new DistributedLock(redisTemplate, LOCK_KEY, Constant.TASK_LOCK_LEASE_TIME);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 留出余量，避免锁租约到期后与其他节点重叠
+            long deadline = System.currentTimeMillis() + (Constant.TASK_LOCK_LEASE_TIME - 60) * 1000;
+            long budget = maxBytesPerRun;
+            for (StorageVolumes.Volume volume : storageVolumes.all()) {
+                if (budget <= 0 || System.currentTimeMillis() >= deadline) {
+                    break;
+                }
+                if (storageVolumes.usage(volume) > highWatermark) {
+                    budget -= drain(volume, budget, deadline);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("存储卷再平衡异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 本次迁出的字节数
+     */
+    private long drain(StorageVolumes.Volume source, long budget, long deadline) throws IOException, InterruptedException {
+        String cursorKey = Constant.STORAGE_REBALANCE_CURSOR_PREFIX + source.getId();
+        String cursor = redisTemplate.opsForValue().get(cursorKey);
+        long lastStorageId = cursor == null ? 0 : Long.parseLong(cursor);
+        long movedBytes = 0;
+        int movedCount = 0;
+        boolean full = false;
+        while (!full && movedBytes < budget && System.currentTimeMillis() < deadline
+                && storageVolumes.usage(source) > highWatermark) {
+            List<Storage> page = storageMapper.selectVolumePage(source.getId(), lastStorageId, batchSize);
+            if (page.isEmpty()) {
+                // 一轮扫完仍超过水位，下次从头开始
+                redisTemplate.delete(cursorKey);
+                break;
+            }
+            List<Path> oldPaths = new ArrayList<>();
+            for (Storage storage : page) {
+                if (movedBytes >= budget) {
+                    break;
+                }
+                try {
+                    Path oldPath = moveOne(storage);
+                    if (oldPath != null) {
+                        oldPaths.add(oldPath);
+                        movedBytes += StorageVolumes.storedLength(storage);
+                    }
+                } catch (BusinessException e) {
+                    // 没有可容纳的卷
+                    full = true;
+                    break;
+                } catch (IOException e) {
+                    log.error("迁移存储文件失败: storageId={}, volume={}", storage.getStorageId(), source.getId(), e);
+                }
+                lastStorageId = storage.getStorageId();
+            }
+            redisTemplate.opsForValue().set(cursorKey, String.valueOf(lastStorageId));
+            movedCount += oldPaths.size();
+
+            Thread.sleep(batchInterval);
+            for (Path oldPath : oldPaths) {
+                Files.deleteIfExists(oldPath);
+            }
+        }
+        if (movedCount > 0) {
+            log.info("存储卷 {} 迁出文件 {} 个（{}），游标 {}", source.getId(), movedCount, Funcs.formatFileSize(movedBytes), lastStorageId);
+        }
+        if (full) {
+            log.warn("存储卷 {} 超过高水位，但同层其他卷已无足够空间", source.getId());
+        }
+        return movedBytes;
+    }
+
+    /**
+     * @return 迁移成功后待删除的源路径；源文件不存在或记录已变化时返回null
+     */
+    private Path moveOne(Storage storage) throws IOException {
+        try (StorageVolumes.Placement placement = storageVolumes.place(StorageVolumes.storedLength(storage), storage.getVolumeId())) {
+            if (storageVolumes.usage(storageVolumes.volume(placement.getVolumeId())) > highWatermark) {
+                throw new BusinessException("Insufficient storage capacity");
+            }
+            return storageMover.move(storage, placement);
+        }
+    }
+
+}
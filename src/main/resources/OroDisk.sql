@@ -9,6 +9,7 @@ CREATE TABLE user (
     password VARCHAR(100) NOT NULL,
     total_quota BIGINT NOT NULL,
     used_quota BIGINT DEFAULT 0,
+    reserved_quota BIGINT DEFAULT 0 NOT NULL,   -- 进行中的分片上传预占的空间
     status INTEGER DEFAULT 1 NOT NULL,  -- 0:forbidden 1:normal 2:unregister
     type INTEGER DEFAULT 1 NOT NULL,    -- 0:admin 1:user 2:vip
     created_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
@@ -22,31 +23,75 @@ CREATE TABLE file (
     file_id BIGINT NOT NULL AUTO_INCREMENT,
     user_id BIGINT NOT NULL COMMENT '所属用户',
     parent_id BIGINT NOT NULL COMMENT '父目录ID（0表示根目录）',
+    path VARCHAR(1000) NOT NULL DEFAULT '/' COMMENT '祖先文件夹ID路径，如/12/34/，根目录下为/',
     storage_id BIGINT NOT NULL COMMENT '对应的实际文件id',
     file_name VARCHAR(255) NOT NULL COMMENT '文件名',
     file_type TINYINT NOT NULL DEFAULT 1 COMMENT '文件类型',
     file_size BIGINT NOT NULL COMMENT '文件尺寸，用于方便查询的冗余',
-    status TINYINT DEFAULT 0 COMMENT '0为正常，1为删除，2为回收站',
+    folder_size BIGINT NOT NULL DEFAULT 0 COMMENT '文件夹：子树中正常文件的总大小，异步增量维护',
+    item_count BIGINT NOT NULL DEFAULT 0 COMMENT '文件夹：子树中正常的文件和文件夹数，异步增量维护',
+    display_size BIGINT AS (IF(file_type = 0, folder_size, file_size)) STORED COMMENT '列表中显示的大小，按大小排序用，随folder_size和file_size自动更新',
+    status TINYINT DEFAULT 0 COMMENT '0为正常，1为删除，2为回收站，3为随上级文件夹进入回收站',
+    recycle_root BIGINT DEFAULT NULL COMMENT '随哪个文件夹进入回收站',
     created_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
     PRIMARY KEY (file_id),
-    UNIQUE KEY idx_idempotent (user_id, parent_id, file_name, status)
+    UNIQUE KEY idx_idempotent (user_id, parent_id, file_name, status),
+    INDEX idx_user_size (user_id, file_size),  -- 配额对账的分组求和走覆盖索引
+    INDEX idx_user_path (user_id, path(255)),  -- 子树查询按路径前缀范围扫描
+    INDEX idx_user_recycle_root (user_id, recycle_root),
+    -- 列表排序翻页，二级索引末尾隐含file_id，与游标条件(排序列..., file_id)对应
+    INDEX idx_list_name (user_id, parent_id, status, file_name),
+    INDEX idx_list_type (user_id, parent_id, status, file_type, file_name),
+    INDEX idx_list_size (user_id, parent_id, status, display_size),
+    INDEX idx_list_time (user_id, parent_id, status, created_time)
 );
+-- 已有数据补齐path（MySQL 8）：
+-- UPDATE file f JOIN (
+--     WITH RECURSIVE t AS (
+--         SELECT file_id, CAST('/' AS CHAR(1000)) AS p FROM file WHERE parent_id = 0
+--         UNION ALL
+--         SELECT c.file_id, CONCAT(t.p, c.parent_id, '/') FROM file c JOIN t ON c.parent_id = t.file_id
+--     ) SELECT file_id, p FROM t
+-- ) x ON f.file_id = x.file_id
+-- SET f.path = x.p;
 
 DROP TABLE IF EXISTS storage;
 CREATE TABLE storage (
     storage_id BIGINT NOT NULL AUTO_INCREMENT,
     storage_size BIGINT NOT NULL DEFAULT 0 COMMENT '文件大小（文件夹为0）',
     storage_path VARCHAR(500) NOT NULL DEFAULT '' COMMENT '实际存储的相对路径',
+    volume_id INT NOT NULL DEFAULT 0 COMMENT '所在存储卷',
+    pack_id BIGINT DEFAULT NULL COMMENT '所在打包文件，独立存放时为NULL',
+    pack_offset BIGINT DEFAULT NULL COMMENT '在打包文件中的偏移',
+    codec TINYINT NOT NULL DEFAULT 0 COMMENT '落盘编码 0:不压缩 1:gzip',
+    stored_size BIGINT DEFAULT NULL COMMENT '落盘大小，不压缩时为NULL',
     md5 varchar(32) NOT NULL COMMENT '文件MD5',
     transcode_status TINYINT DEFAULT 2 COMMENT '0:转码中 1转码失败 2:转码成功',
     ref_count INTEGER COMMENT '引用计数',
+    access_count INT NOT NULL DEFAULT 0 COMMENT '最近一段活跃期内的访问次数',
+    last_access_time DATETIME DEFAULT NULL COMMENT '最近访问时间',
     created_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
     PRIMARY KEY (storage_id),
-    UNIQUE KEY idx_md5 (md5)
+    UNIQUE KEY idx_md5 (md5),
+    INDEX idx_ref_count (ref_count),
+    INDEX idx_storage_path (storage_path(255)),
+    INDEX idx_volume_access (volume_id, last_access_time),
+    INDEX idx_pack_id (pack_id)
 );
 
+-- 小文件打包表，打包文件位于所在卷的 .packs/<pack_id>.pack
+DROP TABLE IF EXISTS storage_pack;
+CREATE TABLE storage_pack (
+    pack_id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    volume_id INT NOT NULL DEFAULT 0 COMMENT '所在存储卷',
+    status TINYINT NOT NULL DEFAULT 0 COMMENT '0:写入中 1:已封存',
+    created_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+    updated_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX idx_status (status)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='小文件打包表';
+
 -- 分片记录表
 DROP TABLE IF EXISTS file_chunk;
 CREATE TABLE file_chunk (
@@ -59,10 +104,25 @@ CREATE TABLE file_chunk (
     storage_path VARCHAR(512) NOT NULL COMMENT '分片存储路径',
     user_id BIGINT NOT NULL,
     created_time DATETIME DEFAULT CURRENT_TIMESTAMP,
-    INDEX idx_identifier (file_identifier),
+    INDEX idx_identifier_time (file_identifier, created_time),
     INDEX idx_user (user_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文件分片记录表';
 
+-- 上传会话表
+DROP TABLE IF EXISTS upload_session;
+CREATE TABLE upload_session (
+    session_id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    user_id BIGINT NOT NULL,
+    file_identifier VARCHAR(64) NOT NULL COMMENT '文件唯一标识(MD5)，流式上传为stream-前缀的随机标识',
+    file_name VARCHAR(255) NOT NULL COMMENT '文件名',
+    parent_id BIGINT NOT NULL COMMENT '目标目录ID',
+    total_size BIGINT NOT NULL COMMENT '文件总大小，即预占的配额',
+    total_chunks INT NOT NULL COMMENT '总分片数，流式上传为0',
+    created_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_user_identifier (user_id, file_identifier),
+    INDEX idx_created_time (created_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='上传会话表';
+
 -- file_share
 DROP TABLE IF EXISTS file_share;
 CREATE TABLE file_share (
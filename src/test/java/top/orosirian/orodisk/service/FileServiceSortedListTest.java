@@ -0,0 +1,150 @@
+package top.orosirian.orodisk.service;
+
+import cn.dev33.satoken.stp.StpUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import top.orosirian.orodisk.mappers.FileMapper;
+import top.orosirian.orodisk.mappers.FileShareMapper;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.model.dto.FileCursor;
+import top.orosirian.orodisk.model.entity.FileEntity;
+import top.orosirian.orodisk.model.response.FileListResponse;
+import top.orosirian.orodisk.model.response.FileResponse;
+import top.orosirian.orodisk.utils.FolderStatsTracker;
+import top.orosirian.orodisk.utils.ListingCache;
+import top.orosirian.orodisk.utils.PackStore;
+import top.orosirian.orodisk.utils.StorageAccessTracker;
+import top.orosirian.orodisk.utils.StorageCompressor;
+import top.orosirian.orodisk.utils.StorageLayout;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.UploadDigestTracker;
+import top.orosirian.orodisk.utils.enums.FileSortKey;
+import top.orosirian.orodisk.utils.enums.FileStatus;
+import top.orosirian.orodisk.utils.enums.FileType;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 按大小排序时文件夹按显示的大小（子树总大小）与文件混排，游标中带的也是显示的大小
+ */
+class FileServiceSortedListTest {
+
+    private static final long USER_ID = 1L;
+
+    private final FileMapper fileMapper = mock(FileMapper.class);
+    private final ListingCache listingCache = mock(ListingCache.class);
+
+    private MockedStatic<StpUtil> stpUtil;
+    private FileService fileService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stpUtil = mockStatic(StpUtil.class);
+        stpUtil.when(StpUtil::getLoginIdAsLong).thenReturn(USER_ID);
+        when(listingCache.get(anyLong(), anyLong(), anyString(), any()))
+                .thenAnswer(invocation -> ((Supplier<FileListResponse>) invocation.getArgument(3)).get());
+
+        fileService = new FileService(fileMapper, mock(StorageMapper.class), mock(UploadSessionService.class), mock(FileShareMapper.class),
+                mock(UserService.class), mock(StringRedisTemplate.class), mock(TransactionTemplate.class), mock(UploadDigestTracker.class),
+                mock(StorageLayout.class), mock(StorageVolumes.class), mock(PackStore.class), mock(StorageAccessTracker.class),
+                mock(StorageCompressor.class), mock(FolderStatsTracker.class), listingCache);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stpUtil.close();
+    }
+
+    @Test
+    void sizeSortMixesFoldersAndFilesByDisplayedSize() {
+        FileEntity bigFolder = folder(10L, 5000L);
+        FileEntity mediumFile = file(11L, 3000L);
+        FileEntity smallFolder = folder(12L, 200L);
+        FileEntity smallFile = file(13L, 100L);
+        when(fileMapper.selectByUserIdAndParentIdSorted(eq(USER_ID), eq(0L), eq(FileStatus.NORMAL.getCode()),
+                eq(FileSortKey.SIZE.getValue()), eq(true), isNull(), eq(4)))
+                .thenReturn(List.of(bigFolder, mediumFile, smallFolder, smallFile));
+
+        FileListResponse first = fileService.listFiles(0L, "size", "desc", null, 3);
+
+        List<Long> sizes = first.getFiles().stream().map(FileResponse::getFileSize).toList();
+        assertEquals(List.of(5000L, 3000L, 200L), sizes);
+        assertEquals(List.of(10L, 11L, 12L), first.getFiles().stream().map(FileResponse::getFileId).toList());
+        assertTrue(first.getHasMore());
+
+        // 最后一行是文件夹，游标带的是其子树大小而不是file_size的0
+        FileCursor cursor = FileCursor.decode(first.getNextCursor());
+        assertEquals(FileSortKey.SIZE, cursor.getSort());
+        assertTrue(cursor.isDesc());
+        assertEquals(12L, cursor.getFileId());
+        assertEquals(200L, cursor.getDisplaySize());
+
+        when(fileMapper.selectByUserIdAndParentIdSorted(anyLong(), anyLong(), anyInt(), anyString(), anyBoolean(),
+                any(FileCursor.class), anyInt()))
+                .thenReturn(List.of(smallFile));
+        FileListResponse second = fileService.listFiles(0L, "size", "desc", first.getNextCursor(), 3);
+
+        ArgumentCaptor<FileCursor> after = ArgumentCaptor.forClass(FileCursor.class);
+        verify(fileMapper, times(2)).selectByUserIdAndParentIdSorted(eq(USER_ID), eq(0L), eq(FileStatus.NORMAL.getCode()),
+                eq(FileSortKey.SIZE.getValue()), eq(true), after.capture(), eq(4));
+        FileCursor passed = after.getAllValues().getLast();
+        assertEquals(200L, passed.getDisplaySize());
+        assertEquals(12L, passed.getFileId());
+        assertEquals(List.of(13L), second.getFiles().stream().map(FileResponse::getFileId).toList());
+        assertNull(second.getNextCursor());
+    }
+
+    private static FileEntity folder(Long fileId, long folderSize) {
+        FileEntity folder = entity(fileId, FileType.FOLDER);
+        folder.setFileSize(0L);
+        folder.setFolderSize(folderSize);
+        folder.setItemCount(1L);
+        folder.setDisplaySize(folderSize);
+        return folder;
+    }
+
+    private static FileEntity file(Long fileId, long fileSize) {
+        FileEntity file = entity(fileId, FileType.FILE);
+        file.setFileSize(fileSize);
+        file.setFolderSize(0L);
+        file.setItemCount(0L);
+        file.setDisplaySize(fileSize);
+        return file;
+    }
+
+    private static FileEntity entity(Long fileId, FileType type) {
+        FileEntity entity = new FileEntity();
+        entity.setFileId(fileId);
+        entity.setUserId(USER_ID);
+        entity.setParentId(0L);
+        entity.setPath("/");
+        entity.setFileName("item-" + fileId);
+        entity.setFileType(type.getCode());
+        entity.setStatus(FileStatus.NORMAL.getCode());
+        return entity;
+    }
+
+}
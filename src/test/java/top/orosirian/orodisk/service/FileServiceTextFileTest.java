@@ -0,0 +1,228 @@
+package top.orosirian.orodisk.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import top.orosirian.orodisk.mappers.FileMapper;
+import top.orosirian.orodisk.mappers.FileShareMapper;
+import top.orosirian.orodisk.mappers.StorageMapper;
+import top.orosirian.orodisk.mappers.StoragePackMapper;
+import top.orosirian.orodisk.model.entity.Storage;
+import top.orosirian.orodisk.model.entity.StoragePack;
+import top.orosirian.orodisk.utils.FolderStatsTracker;
+import top.orosirian.orodisk.utils.ListingCache;
+import top.orosirian.orodisk.utils.PackStore;
+import top.orosirian.orodisk.utils.StorageAccessTracker;
+import top.orosirian.orodisk.utils.StorageCompressor;
+import top.orosirian.orodisk.utils.StorageLayout;
+import top.orosirian.orodisk.utils.StorageVolumes;
+import top.orosirian.orodisk.utils.UploadDigestTracker;
+import top.orosirian.orodisk.utils.config.StorageVolumeProperties;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 文本文件创建的事务回滚不能带走打包文件行：打包文件在内存中继续追加，后续记录仍指向同一个pack_id
+ */
+class FileServiceTextFileTest {
+
+    private static final long PACK_ID = 7L;
+
+    @TempDir
+    Path root;
+
+    private final FileMapper fileMapper = mock(FileMapper.class);
+    private final StorageMapper storageMapper = mock(StorageMapper.class);
+    private final StoragePackMapper storagePackMapper = mock(StoragePackMapper.class);
+    private final StorageLayout storageLayout = mock(StorageLayout.class);
+    private final RecordingTransactionManager transactionManager = new RecordingTransactionManager();
+
+    private StorageVolumes storageVolumes;
+    private PackStore packStore;
+    private FileService fileService;
+    private TransactionTemplate outer;
+    private final List<Tx> packInsertTransactions = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StorageVolumeProperties properties = new StorageVolumeProperties();
+        properties.setBasePath(root.toString());
+        properties.setMinFreeBytes(0);
+        storageVolumes = new StorageVolumes(properties);
+
+        packStore = new PackStore(storagePackMapper, storageVolumes, transactionManager);
+        ReflectionTestUtils.setField(packStore, "enabled", true);
+        ReflectionTestUtils.setField(packStore, "threshold", 65536L);
+        ReflectionTestUtils.setField(packStore, "maxSize", 1L << 30);
+        doAnswer(invocation -> {
+            packInsertTransactions.add(transactionManager.active);
+            ((StoragePack) invocation.getArgument(0)).setPackId(PACK_ID);
+            return 1;
+        }).when(storagePackMapper).insert(any(StoragePack.class));
+
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        doReturn(1L).when(redisTemplate).execute(any(RedisScript.class), anyList(), any());
+
+        when(storageLayout.generatePath(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(0) + ".txt");
+
+        outer = new TransactionTemplate(transactionManager);
+        fileService = new FileService(fileMapper, storageMapper, mock(UploadSessionService.class), mock(FileShareMapper.class),
+                mock(UserService.class), redisTemplate, outer, mock(UploadDigestTracker.class), storageLayout, storageVolumes,
+                packStore, mock(StorageAccessTracker.class), mock(StorageCompressor.class), mock(FolderStatsTracker.class),
+                mock(ListingCache.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        packStore.shutdown();
+    }
+
+    @Test
+    void rolledBackCreateKeepsPackRow() throws Exception {
+        doThrow(new IllegalStateException("insert failed")).when(fileMapper).insert(any());
+
+        // 与@Transactional一样在外层事务中调用
+        assertThrows(IllegalStateException.class,
+                () -> outer.executeWithoutResult(_ -> fileService.createTextFile(1L, 0L, "a.txt", "hello")));
+
+        Tx createTransaction = transactionManager.transactions.getFirst();
+        assertTrue(createTransaction.rolledBack);
+        assertEquals(1, packInsertTransactions.size());
+        Tx packTransaction = packInsertTransactions.getFirst();
+        assertNotSame(createTransaction, packTransaction);
+        assertEquals(TransactionDefinition.PROPAGATION_REQUIRES_NEW, packTransaction.propagation);
+        assertTrue(packTransaction.committed);
+        assertFalse(packTransaction.rolledBack);
+
+        // 回滚后的下一次创建继续追加到同一个已提交的打包文件
+        reset(fileMapper);
+        outer.executeWithoutResult(_ -> fileService.createTextFile(1L, 0L, "b.txt", "world"));
+
+        verify(storagePackMapper, times(1)).insert(any(StoragePack.class));
+        ArgumentCaptor<Storage> storage = ArgumentCaptor.forClass(Storage.class);
+        verify(storageMapper, times(2)).insert(storage.capture());
+        Storage second = storage.getAllValues().getLast();
+        assertEquals(PACK_ID, second.getPackId());
+        assertEquals(5L, second.getPackOffset());
+        assertEquals(10L, Files.size(storageVolumes.packPath(StorageVolumes.DEFAULT_VOLUME, PACK_ID)));
+    }
+
+    private static final class Tx {
+
+        private final int propagation;
+        private boolean committed;
+        private boolean rolledBack;
+
+        private Tx(int propagation) {
+            this.propagation = propagation;
+        }
+
+    }
+
+    private static final class Holder {
+
+        private Tx tx;
+
+        private Holder(Tx tx) {
+            this.tx = tx;
+        }
+
+    }
+
+    /**
+     * 记录每个物理事务的传播行为和结果，REQUIRES_NEW时挂起外层事务
+     */
+    private static final class RecordingTransactionManager extends AbstractPlatformTransactionManager {
+
+        private final List<Tx> transactions = new ArrayList<>();
+        private Tx active;
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Holder(active);
+        }
+
+        @Override
+        protected boolean isExistingTransaction(Object transaction) {
+            return ((Holder) transaction).tx != null;
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+            Tx tx = new Tx(definition.getPropagationBehavior());
+            transactions.add(tx);
+            ((Holder) transaction).tx = tx;
+            active = tx;
+        }
+
+        @Override
+        protected Object doSuspend(Object transaction) {
+            Tx suspended = active;
+            ((Holder) transaction).tx = null;
+            active = null;
+            return suspended;
+        }
+
+        @Override
+        protected void doResume(Object transaction, Object suspendedResources) {
+            active = (Tx) suspendedResources;
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            ((Holder) status.getTransaction()).tx.committed = true;
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+            ((Holder) status.getTransaction()).tx.rolledBack = true;
+        }
+
+        @Override
+        protected void doSetRollbackOnly(DefaultTransactionStatus status) {
+            ((Holder) status.getTransaction()).tx.rolledBack = true;
+        }
+
+        @Override
+        protected void doCleanupAfterCompletion(Object transaction) {
+            active = null;
+        }
+
+    }
+
+}